@@ -26,6 +26,11 @@
 
 package RS;
 
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import localsearch.LocalSearch;
 import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
 import umontreal.ssj.probdist.Distribution;
@@ -34,6 +39,7 @@ import umontreal.ssj.probdist.ExponentialDist;
 import umontreal.ssj.probdist.NormalDist;
 import umontreal.ssj.probdist.PoissonDist;
 import umontreal.ssj.probdist.UniformDist;
+import umontreal.ssj.randvar.UniformGen;
 import umontreal.ssj.rng.MRG32k3aL;
 
 public class RSCycleLinearizationParameters {
@@ -46,6 +52,7 @@ public class RSCycleLinearizationParameters {
 	int nbSamples;
 	int population;
 	int partitions;
+	ExecutorService executor;
 	
 	/**
 	 * This class can be used to produce piecewise linearisation parameters for the first order loss function 
@@ -58,11 +65,24 @@ public class RSCycleLinearizationParameters {
 	 * @param partitions the number of partitions of the random variable support (number of segments = number of partitions + 1) 
 	 */
 	public RSCycleLinearizationParameters(Distribution[] demand, long[] seed, int nbSamples, int population, int partitions){
+		this(demand, seed, nbSamples, population, partitions, null);
+	}
+	
+	/**
+	 * As above, but once the probability masses are fixed the conditional expectations and the maximum 
+	 * approximation error of each cycle are computed on {@code executor}. Cycles are submitted longest 
+	 * first so that the shortest jobs fill the tail of the schedule; each job writes only its own entries, 
+	 * so the result does not depend on the executor.
+	 * 
+	 * @param executor the executor that computes the cycle parameters, or {@code null} to compute them sequentially
+	 */
+	public RSCycleLinearizationParameters(Distribution[] demand, long[] seed, int nbSamples, int population, int partitions, ExecutorService executor){
 		this.demand = demand;
 		this.seed = seed;
 		this.nbSamples = nbSamples;
 		this.population = population;
 		this.partitions = partitions;
+		this.executor = executor;
 		
 		initialize();
 	}
@@ -78,12 +98,19 @@ public class RSCycleLinearizationParameters {
 		MRG32k3aL randomGenerator = new MRG32k3aL();
 		randomGenerator.setSeed(seed);
 		
+		double[][] cumulativeDemand = sampleCumulativeDemand();
+		
 		int counter = 0;
 		for(int i = 0; i < demand.length; i++){
 			for(int j = i; j < demand.length; j++){
 				Distribution[] cycleDistribution = new Distribution[j-i+1];
 				System.arraycopy(demand, i, cycleDistribution, 0, j-i+1);
 				cycleLossFunction[i][j] = new PiecewiseComplementaryFirstOrderLossFunction(cycleDistribution, seed);
+				double[] cycleDemand = new double[nbSamples];
+				for(int s = 0; s < nbSamples; s++){
+					cycleDemand[s] = cumulativeDemand[j+1][s] - cumulativeDemand[i][s];
+				}
+				cycleLossFunction[i][j].setSample(cycleDemand);
 				lossFunctionArray[counter++] = cycleLossFunction[i][j];
 			}
 		}
@@ -91,14 +118,66 @@ public class RSCycleLinearizationParameters {
 		//probabilityMasses = LocalSearch.coordinateDescent(randomGenerator, nbSamples, lossFunctionArray, partitions, population);
 		probabilityMasses = LocalSearch.uniformPartitioning(lossFunctionArray, partitions, nbSamples);
 		
-		for(int i = 0; i < demand.length; i++){
-			for(int j = i; j < demand.length; j++){
-				conditionalExpectation[i][j] = cycleLossFunction[i][j].getConditionalExpectations(probabilityMasses, nbSamples);
-				maximumApproximationError[i][j] = cycleLossFunction[i][j].getMaxApproximationError(probabilityMasses, nbSamples);
-				
-				//cycleLossFunction[i][j].plotPiecewiseLossFunction(0, 100, probabilityMasses, nbSamples, 0.1);
+		if(executor == null){
+			for(int i = 0; i < demand.length; i++){
+				for(int j = i; j < demand.length; j++){
+					computeCycleParameters(cycleLossFunction, i, j);
+					
+					//cycleLossFunction[i][j].plotPiecewiseLossFunction(0, 100, probabilityMasses, nbSamples, 0.1);
+				}
+			}
+		}else{
+			ArrayList<Future<?>> jobs = new ArrayList<Future<?>>();
+			for(int length = demand.length; length >= 1; length--){
+				for(int i = 0; i + length - 1 < demand.length; i++){
+					final int first = i;
+					final int last = i + length - 1;
+					jobs.add(executor.submit(() -> computeCycleParameters(cycleLossFunction, first, last)));
+				}
+			}
+			try {
+				for(Future<?> job : jobs){
+					job.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancel(jobs);
+				throw new RuntimeException("Interrupted while computing the cycle linearisation parameters", e);
+			} catch (ExecutionException e) {
+				cancel(jobs);
+				throw new RuntimeException("Cycle linearisation parameters could not be computed", e.getCause());
+			}
+		}
+	}
+	
+	private static void cancel(ArrayList<Future<?>> jobs){
+		for(Future<?> job : jobs){
+			job.cancel(true);
+		}
+	}
+	
+	private void computeCycleParameters(PiecewiseComplementaryFirstOrderLossFunction[][] cycleLossFunction, int i, int j){
+		conditionalExpectation[i][j] = cycleLossFunction[i][j].getConditionalExpectations(probabilityMasses, nbSamples);
+		maximumApproximationError[i][j] = cycleLossFunction[i][j].getMaxApproximationError(probabilityMasses, nbSamples);
+	}
+	
+	/**
+	 * Samples the whole planning horizon once. Row t holds, for every scenario, the cumulative demand of 
+	 * the first t periods, so that the demand over cycle (i,j) is row j+1 minus row i. All cycles are 
+	 * thus evaluated under common random numbers, and each period demand is drawn only once per scenario. 
+	 * Scenarios are drawn one after the other from the seed, as the loss function of the whole horizon 
+	 * would draw them.
+	 */
+	private double[][] sampleCumulativeDemand(){
+		MRG32k3aL randomGenerator = new MRG32k3aL();
+		randomGenerator.setSeed(seed);
+		double[][] cumulativeDemand = new double[demand.length+1][nbSamples];
+		for(int s = 0; s < nbSamples; s++){
+			for(int t = 0; t < demand.length; t++){
+				cumulativeDemand[t+1][s] = cumulativeDemand[t][s] + demand[t].inverseF(UniformGen.nextDouble(randomGenerator, 0, 1));
 			}
 		}
+		return cumulativeDemand;
 	}
 	
 	public double[] getProbabilityMasses(){
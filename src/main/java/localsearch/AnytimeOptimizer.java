@@ -0,0 +1,307 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import umontreal.ssj.rng.MRG32k3aL;
+
+/**
+ * Budgeted version of {@link LocalSearch#coordinateDescent}. Each iteration draws {@code population} 
+ * candidates from a fresh substream, scores them against the incumbent by active-set evaluation and hill 
+ * climbs from the best of them if it beats the incumbent; the search stops when the wall-clock or 
+ * candidate budget runs out, or when it is cancelled, and returns the best masses found. Every candidate 
+ * and every neighbour scored counts as one candidate evaluation, whatever the number of loss functions 
+ * ({@link MinimaxEvaluator#getEvaluations()} counts loss functions).
+ * 
+ * With a checkpoint file, the incumbent, the iteration count and the state of the random generator are 
+ * written to disk after every {@code checkpointInterval} iterations, and a later run started with the 
+ * same file resumes from them, drawing the same substreams the interrupted run would have drawn. Only 
+ * completed iterations are checkpointed: an iteration cut short by the budget is redone in full on resumption, 
+ * so a resumed run ends as the uninterrupted run would.
+ */
+public class AnytimeOptimizer {
+	MinimaxEvaluator evaluator;
+	int partitions;
+	int population;
+	long timeBudget = Long.MAX_VALUE;
+	long candidateEvaluationBudget = Long.MAX_VALUE;
+	File checkpoint;
+	int checkpointInterval = 1;
+	volatile boolean cancelled;
+	
+	long startTime;
+	long iterations;
+	long candidateEvaluations;
+	double[] bestMass;
+	double minMaxApproxError;
+	
+	long completedEvaluations;
+	double[] completedMass;
+	double completedApproxError;
+	
+	/**
+	 * @param evaluator the loss functions and sample size
+	 * @param partitions the number of partitions
+	 * @param population the number of candidates drawn at each iteration
+	 */
+	public AnytimeOptimizer(MinimaxEvaluator evaluator, int partitions, int population){
+		this.evaluator = evaluator;
+		this.partitions = partitions;
+		this.population = population;
+	}
+	
+	/**
+	 * Limits each call to {@link #optimize} to {@code millis} milliseconds of wall-clock time.
+	 */
+	public void setTimeBudget(long millis){
+		this.timeBudget = millis;
+	}
+	
+	/**
+	 * Limits the search to {@code candidateEvaluations} candidate evaluations in total, including those of 
+	 * resumed runs.
+	 */
+	public void setCandidateEvaluationBudget(long candidateEvaluations){
+		this.candidateEvaluationBudget = candidateEvaluations;
+	}
+	
+	/**
+	 * Writes a checkpoint to {@code file} every {@code interval} iterations, and resumes from it if it exists.
+	 */
+	public void setCheckpoint(File file, int interval){
+		this.checkpoint = file;
+		this.checkpointInterval = interval;
+	}
+	
+	/**
+	 * Asks a running search to stop; it returns the incumbent at its next evaluation.
+	 */
+	public void cancel(){
+		this.cancelled = true;
+	}
+	
+	public boolean isCancelled(){
+		return this.cancelled;
+	}
+	
+	public long getIterations(){
+		return this.iterations;
+	}
+	
+	public long getCandidateEvaluations(){
+		return this.candidateEvaluations;
+	}
+	
+	public double getMaxApproximationError(){
+		return this.minMaxApproxError;
+	}
+	
+	boolean isExhausted(){
+		return this.cancelled || this.candidateEvaluations >= this.candidateEvaluationBudget || 
+				System.currentTimeMillis() - this.startTime >= this.timeBudget;
+	}
+	
+	/**
+	 * Runs the search until the budget runs out or the search is cancelled. A cancellation requested 
+	 * before the call is cleared.
+	 * 
+	 * @param randomGenerator the generator whose substreams are drawn, one per iteration; with a checkpoint 
+	 * to resume from, its state is replaced by the saved one
+	 * @return the best probability masses found
+	 */
+	public double[] optimize(MRG32k3aL randomGenerator){
+		this.startTime = System.currentTimeMillis();
+		this.cancelled = false;
+		long[] completedState = null;
+		if(this.checkpoint != null && this.checkpoint.exists()){
+			if(this.readCheckpoint(randomGenerator)) completedState = randomGenerator.getState();
+		}else{
+			this.iterations = 0;
+			this.candidateEvaluations = 0;
+			this.bestMass = new double[this.partitions];
+			Arrays.fill(this.bestMass, 1.0/this.partitions);
+			this.minMaxApproxError = this.evaluator.getMaxApproximationError(this.bestMass);
+			this.candidateEvaluations++;
+			this.complete();
+		}
+		
+		int nbSamples = this.evaluator.getNbSamples();
+		double[] probabilityMass = new double[this.partitions];
+		while(!this.isExhausted()){
+			System.out.print(".");
+			randomGenerator.resetNextSubstream();
+			MRG32k3aL stream = randomGenerator.clone();
+			
+			double[] startMass = null;
+			double startApproxError = this.completedApproxError;
+			int c = 0;
+			for(; c < this.population && !this.isExhausted(); c++){
+				LocalSearch.drawProbabilityMass(stream, nbSamples, probabilityMass);
+				double maxApproxError = this.evaluator.getMaxApproximationError(probabilityMass, startApproxError);
+				this.candidateEvaluations++;
+				if(maxApproxError < startApproxError){
+					startMass = probabilityMass.clone();
+					startApproxError = maxApproxError;
+				}
+			}
+			boolean complete = c == this.population && (startMass == null || this.hillClimbing(startMass));
+			
+			if(!complete) break;
+			this.iterations++;
+			this.complete();
+			completedState = randomGenerator.getState();
+			if(this.checkpoint != null && this.iterations % this.checkpointInterval == 0) this.writeCheckpoint(completedState);
+		}
+		if(this.checkpoint != null) this.writeCheckpoint(completedState);
+		
+		System.out.println();
+		System.out.println("Minimax (AO): "+this.minMaxApproxError);
+		for(int j = 0; j < this.partitions; j++){
+			System.out.print(this.bestMass[j]+"\t");
+		}
+		System.out.println();
+		
+		return this.bestMass.clone();
+	}
+	
+	/**
+	 * Records the incumbent and the candidate evaluation count at the end of an iteration, the state 
+	 * that is checkpointed.
+	 */
+	private void complete(){
+		this.completedEvaluations = this.candidateEvaluations;
+		this.completedMass = this.bestMass.clone();
+		this.completedApproxError = this.minMaxApproxError;
+	}
+	
+	/**
+	 * First-improvement hill climbing that checks the budget before each neighbour. The masses reached 
+	 * replace the incumbent if they improve on it, even if the budget cut the climb short.
+	 * 
+	 * @return true if the climb ended with a full pass over the neighbours that found no improvement
+	 */
+	private boolean hillClimbing(double[] startMass){
+		IncrementalEvaluator climber = new IncrementalEvaluator(this.evaluator, startMass);
+		double currentApproxError = climber.getMaxApproximationError();
+		this.candidateEvaluations++;
+		boolean improved = true;
+		boolean exhausted = false;
+		while(improved && !exhausted){
+			improved = false;
+			for(int k = 0; k < this.partitions - 1 && !improved && !exhausted; k++){
+				exhausted = this.isExhausted();
+				if(exhausted) break;
+				for(int delta = -1; delta <= 1 && !improved; delta += 2){
+					if(!climber.canMove(k, delta)) continue;
+					double maxApproxError = climber.evaluateMove(k, delta, currentApproxError);
+					this.candidateEvaluations++;
+					if(maxApproxError < currentApproxError){
+						climber.applyMove(k, delta);
+						currentApproxError = maxApproxError;
+						improved = true;
+					}
+				}
+			}
+		}
+		if(currentApproxError < this.minMaxApproxError){
+			this.minMaxApproxError = currentApproxError;
+			this.bestMass = climber.getProbabilityMasses();
+		}
+		return !improved && !exhausted;
+	}
+	
+	/**
+	 * Writes the checkpoint to a temporary file that then replaces the previous checkpoint, so that a run 
+	 * killed while writing leaves the previous checkpoint intact. The state is that of the generator at the 
+	 * start of the substream of the last completed iteration, which identifies the substreams still to be 
+	 * drawn; it is omitted if no iteration has completed, so that a resumed run keeps its own generator.
+	 */
+	void writeCheckpoint(long[] state){
+		File temporary = new File(this.checkpoint.getPath()+".tmp");
+		try(PrintWriter pw = new PrintWriter(temporary)){
+			pw.println("iterations "+this.iterations);
+			pw.println("candidateEvaluations "+this.completedEvaluations);
+			pw.println("error "+this.completedApproxError);
+			pw.println("mass "+join(this.completedMass));
+			if(state != null) pw.println("state "+join(state));
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		try{
+			Files.move(temporary.toPath(), this.checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * @return true if the checkpoint restored the state of {@code randomGenerator}
+	 */
+	boolean readCheckpoint(MRG32k3aL randomGenerator){
+		boolean restored = false;
+		try(BufferedReader reader = new BufferedReader(new FileReader(this.checkpoint))){
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] tokens = line.trim().split("\\s+");
+				switch(tokens[0]){
+				case "iterations": this.iterations = Long.parseLong(tokens[1]); break;
+				case "candidateEvaluations": this.candidateEvaluations = Long.parseLong(tokens[1]); break;
+				case "error": this.minMaxApproxError = Double.parseDouble(tokens[1]); break;
+				case "mass": 
+					this.bestMass = Arrays.stream(tokens, 1, tokens.length).mapToDouble(Double::parseDouble).toArray(); 
+					break;
+				case "state": 
+					randomGenerator.setSeed(Arrays.stream(tokens, 1, tokens.length).mapToLong(Long::parseLong).toArray()); 
+					restored = true;
+					break;
+				default: throw new IllegalArgumentException("Unknown checkpoint entry: "+tokens[0]);
+				}
+			}
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		this.complete();
+		return restored;
+	}
+	
+	private static String join(double[] values){
+		return Arrays.stream(values).mapToObj(Double::toString).reduce((a, b) -> a+" "+b).orElse("");
+	}
+	
+	private static String join(long[] values){
+		return Arrays.stream(values).mapToObj(Long::toString).reduce((a, b) -> a+" "+b).orElse("");
+	}
+}
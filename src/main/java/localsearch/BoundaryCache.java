@@ -0,0 +1,162 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
+
+/**
+ * Bounded open-addressing table from the interior boundaries of a partition of the sorted samples to its 
+ * maximum approximation error. Boundaries are integer sample counts, so equal partitions have equal keys. A 
+ * key is looked up in at most {@code MAX_PROBES} slots from its hash; when all of them are taken, the first 
+ * one is overwritten, so the table never grows. Besides exact errors, the table keeps lower bounds, the 
+ * partial maxima of evaluations aborted at a bound, which still answer any query with a bound they reach. 
+ * Each slot is guarded by a stamp, odd while the slot is written: a writer takes the slot by incrementing its 
+ * stamp, and a reader discards what it read if the stamp was odd or changed meanwhile. The table is thus 
+ * shared across threads without locking and without allocating. A table is only valid for the samples of 
+ * the versions it was created with.
+ */
+class BoundaryCache {
+	static final int MAX_PROBES = 8;
+	
+	static final int EMPTY = 0;
+	static final int EXACT = 1;
+	static final int LOWER_BOUND = 2;
+	
+	final int width;
+	final int mask;
+	final long[] sampleVersions;
+	final AtomicLongArray stamps;
+	final AtomicIntegerArray keys;
+	final AtomicLongArray values;
+	final AtomicIntegerArray states;
+	final LongAdder hits = new LongAdder();
+	final LongAdder lookups = new LongAdder();
+	
+	/**
+	 * @param width the number of interior boundaries of a key
+	 * @param capacity the number of slots, rounded up to a power of two
+	 * @param pwcfolfs the loss functions whose errors are stored
+	 */
+	BoundaryCache(int width, int capacity, PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs){
+		this.width = width;
+		int slots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.mask = slots - 1;
+		this.sampleVersions = new long[pwcfolfs.length];
+		for(int i = 0; i < pwcfolfs.length; i++) this.sampleVersions[i] = pwcfolfs[i].getSampleVersion();
+		this.stamps = new AtomicLongArray(slots);
+		this.keys = new AtomicIntegerArray(slots*width);
+		this.values = new AtomicLongArray(slots);
+		this.states = new AtomicIntegerArray(slots);
+	}
+	
+	private static int hash(int[] boundaries){
+		int h = 0;
+		for(int k = 1; k < boundaries.length - 1; k++) h = (h + boundaries[k])*0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	private boolean matches(int slot, int[] boundaries){
+		for(int k = 0; k < this.width; k++){
+			if(this.keys.get(slot*this.width + k) != boundaries[k+1]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the cached error of {@code boundaries} if it is exact, or a cached lower bound if it is not 
+	 * smaller than {@code bound}; returns -1 otherwise, also when a slot probed is being written.
+	 * 
+	 * @param boundaries all boundaries, from 0 to nbSamples
+	 */
+	double get(int[] boundaries, double bound){
+		this.lookups.increment();
+		int home = hash(boundaries);
+		for(int p = 0; p < MAX_PROBES; p++){
+			int slot = (home + p) & this.mask;
+			long stamp = this.stamps.get(slot);
+			if((stamp & 1) != 0) return -1;
+			int state = this.states.get(slot);
+			if(state == EMPTY) return -1;
+			boolean matches = this.matches(slot, boundaries);
+			double value = Double.longBitsToDouble(this.values.get(slot));
+			if(this.stamps.get(slot) != stamp) return -1;
+			if(matches){
+				if(state == EXACT || value >= bound){
+					this.hits.increment();
+					return value;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Stores the error of {@code boundaries}, exact or a lower bound; an exact error is never replaced by a 
+	 * lower bound. A store is dropped if another thread is writing the slot.
+	 */
+	void put(int[] boundaries, double value, boolean exact){
+		int home = hash(boundaries);
+		int slot = home & this.mask;
+		for(int p = 0; p < MAX_PROBES; p++){
+			int candidate = (home + p) & this.mask;
+			if(this.states.get(candidate) == EMPTY || this.matches(candidate, boundaries)){
+				slot = candidate;
+				break;
+			}
+		}
+		long stamp = this.stamps.get(slot);
+		if((stamp & 1) != 0 || !this.stamps.compareAndSet(slot, stamp, stamp + 1)) return;
+		if(!exact && this.states.get(slot) == EXACT && this.matches(slot, boundaries)){
+			this.stamps.set(slot, stamp);
+			return;
+		}
+		for(int k = 0; k < this.width; k++) this.keys.set(slot*this.width + k, boundaries[k+1]);
+		this.values.set(slot, Double.doubleToRawLongBits(value));
+		this.states.set(slot, exact ? EXACT : LOWER_BOUND);
+		this.stamps.set(slot, stamp + 2);
+	}
+	
+	/**
+	 * Returns true if the table was created for the current samples of {@code pwcfolfs}.
+	 */
+	boolean isCurrent(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs){
+		for(int i = 0; i < pwcfolfs.length; i++){
+			if(pwcfolfs[i].getSampleVersion() != this.sampleVersions[i]) return false;
+		}
+		return true;
+	}
+	
+	double getHitRate(){
+		long lookups = this.lookups.sum();
+		return lookups == 0 ? 0 : ((double) this.hits.sum())/lookups;
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Orders the loss functions of a minimax search by the number of times each of them has set, or first 
+ * exceeded the bound on, the maximum approximation error of a candidate. Evaluating loss functions in 
+ * this order lets a bounded evaluation reject most candidates after one or two of them. The order is 
+ * refreshed every {@link #REORDER_INTERVAL} records and is safe to use from several threads; it only 
+ * affects how much work a bounded evaluation does, not its outcome.
+ */
+class CycleOrder {
+	static final int REORDER_INTERVAL = 256;
+	
+	AtomicLongArray hits;
+	AtomicLong records = new AtomicLong();
+	volatile int[] order;
+	
+	CycleOrder(int cycles){
+		this.hits = new AtomicLongArray(cycles);
+		this.order = new int[cycles];
+		for(int i = 0; i < cycles; i++) this.order[i] = i;
+	}
+	
+	int[] getOrder(){
+		return this.order;
+	}
+	
+	void record(int cycle){
+		this.hits.incrementAndGet(cycle);
+		if(this.records.incrementAndGet() % REORDER_INTERVAL == 0) this.reorder();
+	}
+	
+	private void reorder(){
+		long[] snapshot = new long[this.hits.length()];
+		for(int i = 0; i < snapshot.length; i++) snapshot[i] = this.hits.get(i);
+		this.order = Arrays.stream(this.order).boxed()
+				.sorted((a, b) -> Long.compare(snapshot[b], snapshot[a]))
+				.mapToInt(Integer::intValue).toArray();
+	}
+}
@@ -0,0 +1,288 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
+
+/**
+ * Keeps a partition of the sorted samples as integer boundaries and the error of every partition of every 
+ * loss function, so that a boundary move is scored with two segment evaluations per loss function. 
+ * Partitions already evaluated are looked up in the {@link BoundaryCache} of the {@link MinimaxEvaluator}.
+ */
+public class IncrementalEvaluator {
+	PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs;
+	int nbSamples;
+	ForkJoinPool pool;
+	CycleOrder cycleOrder;
+	BoundaryCache cache;
+	int[] boundaries;
+	int[] moveBoundaries;
+	double[][] approximationErrors;
+	double[][] prefixMax;
+	double[][] suffixMax;
+	double maxApproximationError;
+	
+	/**
+	 * @param pwcfolfs the loss functions
+	 * @param probabilityMass the initial probability masses; each cumulative mass is rounded to the nearest 
+	 * sample boundary, leaving at least one sample in every partition
+	 * @param nbSamples the number of samples
+	 */
+	public IncrementalEvaluator(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, double[] probabilityMass, int nbSamples){
+		this(pwcfolfs, probabilityMass, nbSamples, null);
+	}
+	
+	/**
+	 * Builds an evaluator over the loss functions, sample size and pool of {@code evaluator}.
+	 */
+	public IncrementalEvaluator(MinimaxEvaluator evaluator, double[] probabilityMass){
+		this(evaluator.getLossFunctions(), probabilityMass, evaluator.getNbSamples(), evaluator.getPool(), 
+				evaluator.cycleOrder, evaluator.getCache(probabilityMass.length));
+	}
+	
+	/**
+	 * @param pool the pool on which loss functions are processed, or {@code null} to process them sequentially
+	 */
+	public IncrementalEvaluator(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, double[] probabilityMass, int nbSamples, ForkJoinPool pool){
+		this(pwcfolfs, probabilityMass, nbSamples, pool, new CycleOrder(pwcfolfs.length), 
+				new BoundaryCache(probabilityMass.length - 1, MinimaxEvaluator.CACHE_CAPACITY, pwcfolfs));
+	}
+	
+	/**
+	 * @param cycleOrder the order in which bounded evaluations visit the loss functions
+	 * @param cache the table of partitions already evaluated
+	 */
+	IncrementalEvaluator(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, double[] probabilityMass, int nbSamples, ForkJoinPool pool, 
+			CycleOrder cycleOrder, BoundaryCache cache){
+		this.pwcfolfs = pwcfolfs;
+		this.nbSamples = nbSamples;
+		this.pool = pool;
+		this.cycleOrder = cycleOrder;
+		this.cache = cache;
+		int partitions = probabilityMass.length;
+		this.boundaries = new int[partitions + 1];
+		double cumulativeMass = 0;
+		for(int k = 1; k < partitions; k++){
+			cumulativeMass += probabilityMass[k-1];
+			int boundary = (int) Math.round(cumulativeMass*nbSamples);
+			this.boundaries[k] = Math.min(Math.max(boundary, this.boundaries[k-1] + 1), nbSamples - (partitions - k));
+		}
+		this.boundaries[partitions] = nbSamples;
+		
+		this.approximationErrors = new double[pwcfolfs.length][partitions];
+		this.prefixMax = new double[pwcfolfs.length][partitions];
+		this.suffixMax = new double[pwcfolfs.length][partitions];
+		this.forEachLossFunction(i -> {
+			for(int k = 0; k < partitions; k++){
+				this.approximationErrors[i][k] = this.getSegmentApproximationError(i, this.boundaries[k], this.boundaries[k+1]);
+			}
+			this.updateMaxima(i);
+		});
+		this.updateMaxApproximationError();
+		this.moveBoundaries = this.boundaries.clone();
+		this.cache.put(this.boundaries, this.maxApproximationError, true);
+	}
+	
+	private void forEachLossFunction(IntConsumer action){
+		if(this.pool == null){
+			for(int i = 0; i < this.pwcfolfs.length; i++) action.accept(i);
+		}else{
+			this.pool.submit(() -> IntStream.range(0, this.pwcfolfs.length).parallel().forEach(action)).join();
+		}
+	}
+	
+	private double getSegmentApproximationError(int i, int from, int to){
+		return this.pwcfolfs[i].getSegmentApproximationError(((double) from)/this.nbSamples, ((double) to)/this.nbSamples, this.nbSamples);
+	}
+	
+	private void updateMaxima(int i){
+		int partitions = this.boundaries.length - 1;
+		double[] errors = this.approximationErrors[i];
+		this.prefixMax[i][0] = errors[0];
+		for(int k = 1; k < partitions; k++){
+			this.prefixMax[i][k] = Math.max(this.prefixMax[i][k-1], errors[k]);
+		}
+		this.suffixMax[i][partitions-1] = errors[partitions-1];
+		for(int k = partitions - 2; k >= 0; k--){
+			this.suffixMax[i][k] = Math.max(this.suffixMax[i][k+1], errors[k]);
+		}
+	}
+	
+	private void updateMaxApproximationError(){
+		int partitions = this.boundaries.length - 1;
+		this.maxApproximationError = 0;
+		for(int i = 0; i < this.pwcfolfs.length; i++){
+			this.maxApproximationError = Math.max(this.maxApproximationError, this.prefixMax[i][partitions-1]);
+		}
+	}
+	
+	public int getPartitions(){
+		return this.boundaries.length - 1;
+	}
+	
+	public int getNbSamples(){
+		return this.nbSamples;
+	}
+	
+	/**
+	 * Returns the number of samples in partition {@code k}.
+	 */
+	public int getCount(int k){
+		return this.boundaries[k+1] - this.boundaries[k];
+	}
+	
+	public double getMaxApproximationError(){
+		return this.maxApproximationError;
+	}
+	
+	public double[] getProbabilityMasses(){
+		double[] probabilityMass = new double[this.getPartitions()];
+		for(int k = 0; k < probabilityMass.length; k++){
+			probabilityMass[k] = ((double) this.getCount(k))/this.nbSamples;
+		}
+		return probabilityMass;
+	}
+	
+	/**
+	 * Returns true if moving {@code delta} samples from partition k+1 to partition k (from k to k+1 if 
+	 * {@code delta} is negative) leaves both partitions nonempty.
+	 */
+	public boolean canMove(int k, int delta){
+		return this.getCount(k) + delta >= 1 && this.getCount(k+1) - delta >= 1;
+	}
+	
+	/**
+	 * Returns the maximum approximation error after moving {@code delta} samples from partition k+1 to 
+	 * partition k, without applying the move.
+	 */
+	public double evaluateMove(int k, int delta){
+		return this.evaluateMoves(k, delta)[0];
+	}
+	
+	/**
+	 * Bounded version of {@link #evaluateMove(int, int)}: loss functions are visited on the calling thread, 
+	 * those that most often set the maximum first, and the evaluation stops as soon as the partial maximum 
+	 * reaches {@code bound}. A loss function whose untouched partitions already reach the bound costs no 
+	 * segment evaluation.
+	 * 
+	 * @return the maximum approximation error if it is below {@code bound}, otherwise a partial maximum 
+	 * not smaller than {@code bound}
+	 */
+	public double evaluateMove(int k, int delta, double bound){
+		int[] key = this.getMoveBoundaries(k, delta);
+		double cached = this.cache.get(key, bound);
+		if(cached >= 0) return cached;
+		int partitions = this.getPartitions();
+		int[] order = this.cycleOrder.getOrder();
+		double maxApproximationError = 0;
+		int worst = order[0];
+		for(int i : order){
+			double cycleMax = 0;
+			if(k > 0) cycleMax = this.prefixMax[i][k-1];
+			if(k + 2 < partitions) cycleMax = Math.max(cycleMax, this.suffixMax[i][k+2]);
+			if(cycleMax < bound) cycleMax = this.evaluateMove(i, k, delta);
+			if(cycleMax > maxApproximationError){
+				maxApproximationError = cycleMax;
+				worst = i;
+			}
+			if(maxApproximationError >= bound) break;
+		}
+		this.cycleOrder.record(worst);
+		this.cache.put(key, maxApproximationError, maxApproximationError < bound);
+		return maxApproximationError;
+	}
+	
+	/**
+	 * Returns the boundaries after the move, in an array reused by every call.
+	 */
+	private int[] getMoveBoundaries(int k, int delta){
+		System.arraycopy(this.boundaries, 0, this.moveBoundaries, 0, this.boundaries.length);
+		this.moveBoundaries[k+1] += delta;
+		return this.moveBoundaries;
+	}
+	
+	/**
+	 * Returns the maximum approximation error after each of the moves of the boundary between partitions 
+	 * k and k+1 by {@code deltas}, evaluated independently and without applying any of them. With a pool, 
+	 * all (move, loss function) pairs not found in the cache are evaluated in parallel.
+	 */
+	public double[] evaluateMoves(int k, int... deltas){
+		int cycles = this.pwcfolfs.length;
+		double[] maxApproximationErrors = new double[deltas.length];
+		boolean[] cached = new boolean[deltas.length];
+		for(int d = 0; d < deltas.length; d++){
+			maxApproximationErrors[d] = this.cache.get(this.getMoveBoundaries(k, deltas[d]), Double.MAX_VALUE);
+			cached[d] = maxApproximationErrors[d] >= 0;
+		}
+		double[] cycleMax = new double[deltas.length*cycles];
+		IntConsumer action = p -> {
+			if(!cached[p / cycles]) cycleMax[p] = this.evaluateMove(p % cycles, k, deltas[p / cycles]);
+		};
+		if(this.pool == null){
+			for(int p = 0; p < cycleMax.length; p++) action.accept(p);
+		}else{
+			this.pool.submit(() -> IntStream.range(0, cycleMax.length).parallel().forEach(action)).join();
+		}
+		for(int d = 0; d < deltas.length; d++){
+			if(cached[d]) continue;
+			maxApproximationErrors[d] = 0;
+			for(int i = 0; i < cycles; i++){
+				maxApproximationErrors[d] = Math.max(maxApproximationErrors[d], cycleMax[d*cycles + i]);
+			}
+			this.cache.put(this.getMoveBoundaries(k, deltas[d]), maxApproximationErrors[d], true);
+		}
+		return maxApproximationErrors;
+	}
+	
+	private double evaluateMove(int i, int k, int delta){
+		int partitions = this.getPartitions();
+		int boundary = this.boundaries[k+1] + delta;
+		double cycleMax = Math.max(this.getSegmentApproximationError(i, this.boundaries[k], boundary), 
+				this.getSegmentApproximationError(i, boundary, this.boundaries[k+2]));
+		if(k > 0) cycleMax = Math.max(cycleMax, this.prefixMax[i][k-1]);
+		if(k + 2 < partitions) cycleMax = Math.max(cycleMax, this.suffixMax[i][k+2]);
+		return cycleMax;
+	}
+	
+	/**
+	 * Moves {@code delta} samples from partition k+1 to partition k.
+	 */
+	public void applyMove(int k, int delta){
+		this.boundaries[k+1] += delta;
+		this.forEachLossFunction(i -> {
+			this.approximationErrors[i][k] = this.getSegmentApproximationError(i, this.boundaries[k], this.boundaries[k+1]);
+			this.approximationErrors[i][k+1] = this.getSegmentApproximationError(i, this.boundaries[k+1], this.boundaries[k+2]);
+			this.updateMaxima(i);
+		});
+		this.updateMaxApproximationError();
+		this.cache.put(this.boundaries, this.maxApproximationError, true);
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable candidate of a parallel search: a probability mass vector, its maximum approximation 
+ * error and the index at which it was drawn. Candidates with equal error are ordered by index, so that 
+ * the best candidate does not depend on the order in which threads offer them.
+ */
+class Incumbent {
+	/**
+	 * Orders candidates from the best to the worst, consistently with {@link #isBetterThan(Incumbent)}.
+	 */
+	static final Comparator<Incumbent> BEST_FIRST = 
+			Comparator.comparingDouble((Incumbent i) -> i.maxApproximationError).thenComparingLong(i -> i.index);
+	
+	final double maxApproximationError;
+	final long index;
+	final double[] probabilityMass;
+	
+	Incumbent(double maxApproximationError, long index, double[] probabilityMass){
+		this.maxApproximationError = maxApproximationError;
+		this.index = index;
+		this.probabilityMass = probabilityMass;
+	}
+	
+	boolean isBetterThan(Incumbent other){
+		return other == null || this.maxApproximationError < other.maxApproximationError || 
+				(this.maxApproximationError == other.maxApproximationError && this.index < other.index);
+	}
+	
+	/**
+	 * Installs {@code candidate} in {@code holder} unless the current incumbent is at least as good.
+	 */
+	static void offer(AtomicReference<Incumbent> holder, Incumbent candidate){
+		Incumbent current = holder.get();
+		while(candidate.isBetterThan(current) && !holder.compareAndSet(current, candidate)){
+			current = holder.get();
+		}
+	}
+}
@@ -28,6 +28,16 @@ package localsearch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.stream.IntStream;
 
 import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
 import umontreal.ssj.randvar.UniformIntGen;
@@ -35,78 +45,578 @@ import umontreal.ssj.rng.MRG32k3aL;
 
 public class LocalSearch {
 	
+	/**
+	 * Number of candidates drawn from one random substream by {@link #parallelRandomSampling}.
+	 */
+	public static final int SEARCH_BLOCK_SIZE = 1000;
+	
+	/**
+	 * Number of steps in the unit mass at the coarsest resolution of {@link #multiresolutionHillClimbing}.
+	 */
+	public static final int COARSE_STEPS = 100;
+	
+	/**
+	 * First and last exponent of the p-norm surrogate minimised by {@link #projectedGradientDescent}.
+	 */
+	static final double INITIAL_EXPONENT = 8;
+	static final double MAX_EXPONENT = 512;
+	
 	public static double[] uniformPartitioning(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int partitions, int nbSamples){
+		return uniformPartitioning(new MinimaxEvaluator(pwcfolfs, nbSamples), partitions);
+	}
+	
+	public static double[] uniformPartitioning(MinimaxEvaluator evaluator, int partitions){
 		double[] probabilityMass = new double[partitions];
 		Arrays.fill(probabilityMass, 1.0/partitions);
-		double maxApproxError = 0;
-		for(int i = 0; i < pwcfolfs.length; i++){
-			maxApproxError = Math.max(maxApproxError,pwcfolfs[i].getMaxApproximationError(probabilityMass, nbSamples));
-		}
+		double maxApproxError = evaluator.getMaxApproximationError(probabilityMass);
 		System.out.println("Minimax (UP): "+maxApproxError);
 		return probabilityMass;
 	}
 	
 	public static double[] coordinateDescent(MRG32k3aL randomGenerator, int nbSamples, 
 			PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int partitions, int population){
+		return coordinateDescent(randomGenerator, new MinimaxEvaluator(pwcfolfs, nbSamples), partitions, population);
+	}
+	
+	public static double[] coordinateDescent(MRG32k3aL randomGenerator, MinimaxEvaluator evaluator, int partitions, int population){
 
-		double[] probabilityMass = simpleRandomSampling(randomGenerator, nbSamples, pwcfolfs, partitions, population);
+		double[] probabilityMass = simpleRandomSampling(randomGenerator, evaluator, partitions, population);
 		
-		double[] bestMass = hillClimbing(randomGenerator, probabilityMass, nbSamples, pwcfolfs, partitions, population);
+		double[] bestMass = hillClimbing(randomGenerator, probabilityMass, evaluator, partitions, population);
 		
 		return bestMass;
 	}
 	
-	public static double[] hillClimbing(MRG32k3aL randomGenerator, double[] probabilityMass, int nbSamples, 
-			PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int partitions, int population){
-		double precision = 1.0/nbSamples;
-
-		double currentApproxError = 0;
+	/**
+	 * Multi-start coordinate descent: the {@code starts} best of {@code population} random candidates, drawn 
+	 * and scored as by {@link #parallelRandomSampling}, are hill climbed concurrently on the evaluator's pool; 
+	 * the climb from the s-th best start scans the boundaries from boundary s. A climb is abandoned once its 
+	 * error exceeds by more than {@code dominanceMargin} a local optimum reached from a better-ranked start; 
+	 * ties go to the better-ranked start. With an infinite margin the result does not depend on the pool.
+	 */
+	public static double[] multiStartCoordinateDescent(MRG32k3aL randomGenerator, MinimaxEvaluator evaluator, 
+			int partitions, int population, int starts, double dominanceMargin){
+		int nbSamples = evaluator.getNbSamples();
+		Incumbent[] startPoints = sampleTopCandidates(randomGenerator, evaluator, partitions, population, starts);
+		
+		AtomicReference<Incumbent> best = new AtomicReference<Incumbent>();
+		AtomicReference<Incumbent> optimum = new AtomicReference<Incumbent>();
+		IntConsumer climb = s -> {
+			IncrementalEvaluator climber = new IncrementalEvaluator(evaluator.getLossFunctions(), startPoints[s].probabilityMass, nbSamples, null, 
+					evaluator.cycleOrder, evaluator.getCache(partitions));
+			climb(climber, best, optimum, s, dominanceMargin, s % Math.max(1, partitions - 1));
+		};
+		ForkJoinPool pool = evaluator.getPool();
+		if(pool == null){
+			for(int s = 0; s < startPoints.length; s++) climb.accept(s);
+		}else{
+			pool.submit(() -> IntStream.range(0, startPoints.length).parallel().forEach(climb)).join();
+		}
+		
+		Incumbent incumbent = best.get();
+		System.out.println("Minimax (MS): "+incumbent.maxApproximationError);
+		for(int j = 0; j < partitions; j++){
+			System.out.print(incumbent.probabilityMass[j]+"\t");
+		}
+		System.out.println();
+		
+		return incumbent.probabilityMass;
+	}
+	
+	/**
+	 * First-improvement hill climbing that scans boundaries cyclically from {@code offset}, offers every 
+	 * improvement on {@code best}, its local optimum on {@code optimum}, and stops once dominated by an 
+	 * optimum of a better-ranked start.
+	 */
+	private static void climb(IncrementalEvaluator climber, AtomicReference<Incumbent> best, 
+			AtomicReference<Incumbent> optimum, int index, double dominanceMargin, int offset){
+		int boundaries = climber.getPartitions() - 1;
+		double currentApproxError = climber.getMaxApproximationError();
+		Incumbent.offer(best, new Incumbent(currentApproxError, index, climber.getProbabilityMasses()));
+		boolean improved = true;
+		while(improved){
+			improved = false;
+			Incumbent localOptimum = optimum.get();
+			if(localOptimum != null && localOptimum.index < index && 
+					currentApproxError > localOptimum.maxApproximationError*(1 + dominanceMargin)) return;
+			for(int j = 0; j < boundaries && !improved; j++){
+				int k = (offset + j) % boundaries;
+				for(int delta = -1; delta <= 1 && !improved; delta += 2){
+					if(!climber.canMove(k, delta)) continue;
+					double maxApproxError = climber.evaluateMove(k, delta, currentApproxError);
+					if(maxApproxError < currentApproxError){
+						climber.applyMove(k, delta);
+						currentApproxError = maxApproxError;
+						improved = true;
+					}
+				}
+			}
+			if(improved && currentApproxError <= best.get().maxApproximationError){
+				Incumbent.offer(best, new Incumbent(currentApproxError, index, climber.getProbabilityMasses()));
+			}
+		}
+		Incumbent.offer(optimum, new Incumbent(currentApproxError, index, climber.getProbabilityMasses()));
+	}
+	
+	/**
+	 * Returns the best point of the probability mass simplex on the lattice of multiples of 1/{@code resolution}, 
+	 * pruning against the best point found so far; see {@link #gridEnumeration(MinimaxEvaluator, int, int, double, ObjDoubleConsumer)}. 
+	 * Ties are resolved in favour of the lexicographically smallest boundaries.
+	 */
+	public static double[] gridEnumeration(MinimaxEvaluator evaluator, int partitions, int resolution){
+		AtomicReference<Incumbent> best = new AtomicReference<Incumbent>();
+		enumerateLattice(evaluator, partitions, resolution, () -> {
+			Incumbent incumbent = best.get();
+			return incumbent == null ? Double.MAX_VALUE : Math.nextUp(incumbent.maxApproximationError);
+		}, (boundaries, maxApproxError) -> {
+			long index = 0;
+			for(int k = 1; k < partitions; k++) index = index*(resolution + 1) + boundaries[k];
+			Incumbent.offer(best, new Incumbent(maxApproxError, index, toProbabilityMass(boundaries, resolution)));
+		});
+		
+		Incumbent incumbent = best.get();
+		System.out.println("Minimax (GE): "+incumbent.maxApproximationError);
+		for(int j = 0; j < partitions; j++){
+			System.out.print(incumbent.probabilityMass[j]+"\t");
+		}
+		System.out.println();
+		
+		return incumbent.probabilityMass;
+	}
+	
+	/**
+	 * Passes to {@code consumer} every mass vector of positive multiples of 1/{@code resolution} whose maximum 
+	 * error is below {@code threshold}, with that error. Prefixes whose closed partitions already reach the 
+	 * threshold are pruned. Runs on the evaluator's pool, so {@code consumer} must be thread-safe.
+	 */
+	public static void gridEnumeration(MinimaxEvaluator evaluator, int partitions, int resolution, double threshold, 
+			ObjDoubleConsumer<double[]> consumer){
+		enumerateLattice(evaluator, partitions, resolution, () -> threshold, 
+				(boundaries, maxApproxError) -> consumer.accept(toProbabilityMass(boundaries, resolution), maxApproxError));
+	}
+	
+	private static void enumerateLattice(MinimaxEvaluator evaluator, int partitions, int resolution, DoubleSupplier bound, 
+			ObjDoubleConsumer<int[]> consumer){
+		int splitDepth = Math.min(2, partitions - 1);
+		ArrayList<int[]> prefixes = new ArrayList<int[]>();
+		int[] boundaries = new int[partitions + 1];
+		boundaries[partitions] = resolution;
+		collectPrefixes(boundaries, 1, splitDepth, prefixes);
+		IntConsumer task = t -> {
+			int[] prefix = prefixes.get(t).clone();
+			double maxApproxError = 0;
+			for(int k = 1; k <= splitDepth; k++){
+				maxApproxError = Math.max(maxApproxError, getMaxSegmentApproximationError(evaluator, prefix[k-1], prefix[k], resolution));
+			}
+			if(maxApproxError < bound.getAsDouble()){
+				enumerateLattice(evaluator, prefix, splitDepth + 1, maxApproxError, resolution, bound, consumer);
+			}
+		};
+		ForkJoinPool pool = evaluator.getPool();
+		if(pool == null){
+			for(int t = 0; t < prefixes.size(); t++) task.accept(t);
+		}else{
+			pool.submit(() -> IntStream.range(0, prefixes.size()).parallel().forEach(task)).join();
+		}
+	}
+	
+	private static void collectPrefixes(int[] boundaries, int depth, int splitDepth, ArrayList<int[]> prefixes){
+		int partitions = boundaries.length - 1;
+		if(depth > splitDepth){
+			prefixes.add(boundaries.clone());
+			return;
+		}
+		for(int c = boundaries[depth-1] + 1; c <= boundaries[partitions] - (partitions - depth); c++){
+			boundaries[depth] = c;
+			collectPrefixes(boundaries, depth + 1, splitDepth, prefixes);
+		}
+	}
+	
+	/**
+	 * Places boundary {@code depth} given the earlier ones, whose partitions have maximum error {@code prefixError}.
+	 */
+	private static void enumerateLattice(MinimaxEvaluator evaluator, int[] boundaries, int depth, double prefixError, 
+			int resolution, DoubleSupplier bound, ObjDoubleConsumer<int[]> consumer){
+		int partitions = boundaries.length - 1;
+		if(depth == partitions){
+			double maxApproxError = Math.max(prefixError, getMaxSegmentApproximationError(evaluator, boundaries[partitions-1], resolution, resolution));
+			if(maxApproxError < bound.getAsDouble()) consumer.accept(boundaries, maxApproxError);
+			return;
+		}
+		for(int c = boundaries[depth-1] + 1; c <= resolution - (partitions - depth); c++){
+			double maxApproxError = Math.max(prefixError, getMaxSegmentApproximationError(evaluator, boundaries[depth-1], c, resolution));
+			if(maxApproxError >= bound.getAsDouble()) break;
+			boundaries[depth] = c;
+			enumerateLattice(evaluator, boundaries, depth + 1, maxApproxError, resolution, bound, consumer);
+		}
+	}
+	
+	private static double getMaxSegmentApproximationError(MinimaxEvaluator evaluator, int from, int to, int resolution){
+		double maxApproxError = 0;
+		for(PiecewiseComplementaryFirstOrderLossFunction pwcfolf : evaluator.getLossFunctions()){
+			maxApproxError = Math.max(maxApproxError, 
+					pwcfolf.getSegmentApproximationError(((double) from)/resolution, ((double) to)/resolution, evaluator.getNbSamples()));
+		}
+		return maxApproxError;
+	}
+	
+	private static double[] toProbabilityMass(int[] boundaries, int resolution){
+		double[] probabilityMass = new double[boundaries.length - 1];
+		for(int k = 0; k < probabilityMass.length; k++){
+			probabilityMass[k] = ((double) (boundaries[k+1] - boundaries[k]))/resolution;
+		}
+		return probabilityMass;
+	}
+	
+	/**
+	 * Projected gradient descent of the boundaries on the p-norm surrogate of the errors, with an adaptive step; 
+	 * p is doubled from {@link #INITIAL_EXPONENT} to {@link #MAX_EXPONENT} as the step falls below one sample.
+	 */
+	public static double[] projectedGradientDescent(MinimaxEvaluator evaluator, double[] probabilityMass, int maxIterations){
+		int partitions = probabilityMass.length;
+		int nbSamples = evaluator.getNbSamples();
+		PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = evaluator.getLossFunctions();
+		double minMass = 1.0/nbSamples;
+		double[] currentMass = projectOnSimplex(probabilityMass, minMass);
+		double[][] approxErrors = new double[pwcfolfs.length][partitions];
+		double currentApproxError = getApproximationErrors(evaluator, currentMass, approxErrors);
+		double[] bestMass = currentMass.clone();
+		double bestApproxError = currentApproxError;
+		
+		double exponent = INITIAL_EXPONENT;
+		double initialStep = 0.1/partitions;
+		double step = initialStep;
+		double currentSurrogate = getSurrogate(approxErrors, currentApproxError, exponent);
+		double[] boundaries = new double[partitions + 1];
+		double[] gradient = new double[partitions + 1];
+		double[] candidateMass = new double[partitions];
+		double[][] candidateErrors = new double[pwcfolfs.length][partitions];
+		int iteration = 0;
+		for(; iteration < maxIterations && partitions > 1 && currentApproxError > 0; iteration++){
+			if(step < minMass){
+				if(exponent >= MAX_EXPONENT) break;
+				exponent *= 2;
+				step = initialStep;
+				currentSurrogate = getSurrogate(approxErrors, currentApproxError, exponent);
+			}
+			for(int k = 0; k < partitions; k++) boundaries[k+1] = boundaries[k] + currentMass[k];
+			boundaries[partitions] = 1;
+			
+			Arrays.fill(gradient, 0);
+			for(int i = 0; i < pwcfolfs.length; i++){
+				for(int k = 0; k < partitions; k++){
+					double weight = Math.pow(approxErrors[i][k]/currentApproxError, exponent - 1);
+					if(weight < 1e-12) continue;
+					addSegmentGradient(pwcfolfs[i], nbSamples, boundaries, k, weight, gradient);
+				}
+			}
+			double norm = 0;
+			for(int j = 1; j < partitions; j++) norm += gradient[j]*gradient[j];
+			norm = Math.sqrt(norm);
+			if(norm == 0){
+				step = 0;
+				continue;
+			}
+			
+			for(int j = 1; j < partitions; j++) boundaries[j] -= step*gradient[j]/norm;
+			for(int j = 0; j < partitions; j++) candidateMass[j] = boundaries[j+1] - boundaries[j];
+			candidateMass = projectOnSimplex(candidateMass, minMass);
+			double candidateApproxError = getApproximationErrors(evaluator, candidateMass, candidateErrors);
+			double candidateSurrogate = getSurrogate(candidateErrors, candidateApproxError, exponent);
+			if(candidateSurrogate < currentSurrogate){
+				double[] swapMass = currentMass;
+				currentMass = candidateMass;
+				candidateMass = swapMass;
+				double[][] swapErrors = approxErrors;
+				approxErrors = candidateErrors;
+				candidateErrors = swapErrors;
+				currentApproxError = candidateApproxError;
+				currentSurrogate = candidateSurrogate;
+				if(currentApproxError < bestApproxError){
+					bestApproxError = currentApproxError;
+					bestMass = currentMass.clone();
+				}
+				step *= 1.5;
+			}else{
+				step *= 0.5;
+			}
+		}
+		
+		System.out.println("Minimax (SG): "+bestApproxError+" after "+iteration+" iterations");
+		for(int j = 0; j < partitions; j++){
+			System.out.print(bestMass[j]+"\t");
+		}
+		System.out.println();
+		
+		return bestMass;
+	}
+	
+	/**
+	 * Returns the maximum approximation error and stores the error of every partition of every loss function.
+	 */
+	private static double getApproximationErrors(MinimaxEvaluator evaluator, double[] probabilityMass, double[][] approxErrors){
+		double maxApproxError = 0;
+		PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = evaluator.getLossFunctions();
 		for(int i = 0; i < pwcfolfs.length; i++){
-			currentApproxError = Math.max(currentApproxError,pwcfolfs[i].getMaxApproximationError(probabilityMass, nbSamples));
+			maxApproxError = Math.max(maxApproxError, 
+					pwcfolfs[i].getMaxApproximationError(probabilityMass, evaluator.getNbSamples(), null, approxErrors[i]));
+		}
+		return maxApproxError;
+	}
+	
+	/**
+	 * Returns (sum of e^p)^(1/p) over {@code approxErrors}, scaled by their maximum to avoid overflow.
+	 */
+	private static double getSurrogate(double[][] approxErrors, double maxApproxError, double exponent){
+		double sum = 0;
+		for(double[] errors : approxErrors){
+			for(double error : errors) sum += Math.pow(error/maxApproxError, exponent);
+		}
+		return maxApproxError*Math.pow(sum, 1/exponent);
+	}
+	
+	/**
+	 * Adds {@code weight} times the gradient of the error e(a, b) of partition k to {@code gradient}. With 
+	 * x = (G(b) - G(a))/(b - a), de/db = (F(x) - a)(Q(b) - x)/(b - a) and de/da = (F(x) - a)(x - Q(a))/(b - a) - x + Q(a), 
+	 * where F is the distribution function and Q the quantile function of the demand.
+	 */
+	private static void addSegmentGradient(PiecewiseComplementaryFirstOrderLossFunction pwcfolf, int nbSamples, 
+			double[] boundaries, int k, double weight, double[] gradient){
+		double from = boundaries[k];
+		double to = boundaries[k+1];
+		double partialExpectation = pwcfolf.getPartialExpectation(from, nbSamples);
+		double x = (pwcfolf.getPartialExpectation(to, nbSamples) - partialExpectation)/(to - from);
+		double slope = (pwcfolf.getCdf(x, nbSamples) - from)/(to - from);
+		if(k > 0){
+			double quantile = pwcfolf.getQuantile(from, nbSamples);
+			gradient[k] += weight*(slope*(x - quantile) - x + quantile);
+		}
+		if(k < boundaries.length - 2){
+			gradient[k+1] += weight*slope*(pwcfolf.getQuantile(to, nbSamples) - x);
+		}
+	}
+	
+	/**
+	 * Euclidean projection onto the probability masses not smaller than {@code minMass}.
+	 */
+	static double[] projectOnSimplex(double[] probabilityMass, double minMass){
+		int partitions = probabilityMass.length;
+		double total = 1 - partitions*minMass;
+		double[] sorted = new double[partitions];
+		for(int k = 0; k < partitions; k++) sorted[k] = probabilityMass[k] - minMass;
+		Arrays.sort(sorted);
+		double cumulative = 0;
+		double threshold = 0;
+		for(int k = partitions - 1; k >= 0; k--){
+			cumulative += sorted[k];
+			double candidate = (cumulative - total)/(partitions - k);
+			if(k == 0 || candidate >= sorted[k-1]){
+				threshold = candidate;
+				break;
+			}
+		}
+		double[] projected = new double[partitions];
+		for(int k = 0; k < partitions; k++){
+			projected[k] = Math.max(probabilityMass[k] - minMass - threshold, 0) + minMass;
+		}
+		return projected;
+	}
+	
+	public static double[] equalErrorBisection(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int partitions, 
+			int nbSamples, double tolerance){
+		return equalErrorBisection(new MinimaxEvaluator(pwcfolfs, nbSamples), partitions, tolerance);
+	}
+	
+	/**
+	 * Bisects on the target error, placing the boundaries greedily for each target, until the relative gap 
+	 * between infeasible and feasible targets is below {@code tolerance}.
+	 */
+	public static double[] equalErrorBisection(MinimaxEvaluator evaluator, int partitions, double tolerance){
+		if(tolerance <= 0) throw new IllegalArgumentException("The tolerance must be positive: "+tolerance);
+		if(evaluator.getNbSamples() < partitions) 
+			throw new IllegalArgumentException("Fewer samples ("+evaluator.getNbSamples()+") than partitions ("+partitions+")");
+		double[] uniformMass = new double[partitions];
+		Arrays.fill(uniformMass, 1.0/partitions);
+		double upper = evaluator.getMaxApproximationError(uniformMass);
+		double lower = 0;
+		int[] boundaries = new int[partitions + 1];
+		int[] bestBoundaries = null;
+		if(placeBoundaries(evaluator, upper, boundaries)) bestBoundaries = boundaries.clone();
+		while(bestBoundaries == null){
+			if(!(upper < Double.MAX_VALUE)) throw new IllegalStateException("No feasible target error for "+partitions+" partitions");
+			upper = Math.min(Math.max(2*upper, Double.MIN_NORMAL), Double.MAX_VALUE);
+			if(placeBoundaries(evaluator, upper, boundaries)) bestBoundaries = boundaries.clone();
+		}
+		while(upper - lower > tolerance*upper){
+			System.out.print(".");
+			double epsilon = (lower + upper)/2;
+			if(epsilon <= lower || epsilon >= upper) break;
+			if(placeBoundaries(evaluator, epsilon, boundaries)){
+				upper = epsilon;
+				bestBoundaries = boundaries.clone();
+			}else{
+				lower = epsilon;
+			}
 		}
+		System.out.println();
+		
+		double[] probabilityMass = new double[partitions];
+		for(int k = 0; k < partitions; k++){
+			probabilityMass[k] = ((double) (bestBoundaries[k+1] - bestBoundaries[k]))/evaluator.getNbSamples();
+		}
+		System.out.println("Minimax (EE): "+evaluator.getMaxApproximationError(probabilityMass));
+		for(int j = 0; j < partitions; j++){
+			System.out.print(probabilityMass[j]+"\t");
+		}
+		System.out.println();
+		
+		return probabilityMass;
+	}
+	
+	/**
+	 * Greedily places each boundary as far as every loss function keeps the error of the partition it 
+	 * closes within {@code epsilon}, leaving at least one sample for each later partition.
+	 * 
+	 * @return true if the last partition is also within {@code epsilon}
+	 */
+	private static boolean placeBoundaries(MinimaxEvaluator evaluator, double epsilon, int[] boundaries){
+		int partitions = boundaries.length - 1;
+		int nbSamples = evaluator.getNbSamples();
+		for(int k = 1; k < partitions; k++){
+			int from = boundaries[k-1];
+			if(evaluator.getMaxSegmentApproximationError(from, from + 1) > epsilon) return false;
+			int low = from + 1;
+			int high = nbSamples - (partitions - k);
+			while(low < high){
+				int middle = (low + high + 1) >>> 1;
+				if(evaluator.getMaxSegmentApproximationError(from, middle) <= epsilon){
+					low = middle;
+				}else{
+					high = middle - 1;
+				}
+			}
+			boundaries[k] = low;
+		}
+		boundaries[partitions] = nbSamples;
+		return evaluator.getMaxSegmentApproximationError(boundaries[partitions-1], nbSamples) <= epsilon;
+	}
+	
+	public static double[] optimalPartitioning(PiecewiseComplementaryFirstOrderLossFunction pwcfolf, int partitions, int nbSamples){
+		return optimalPartitioning(new MinimaxEvaluator(new PiecewiseComplementaryFirstOrderLossFunction[]{pwcfolf}, nbSamples), partitions);
+	}
+	
+	/**
+	 * Exact minimax partitioning on the sample grid: D(k, b) = min over a of max(D(k-1, a), e(a, b)), each layer 
+	 * by divide and conquer since the optimal a is nondecreasing in b.
+	 */
+	public static double[] optimalPartitioning(MinimaxEvaluator evaluator, int partitions){
+		int nbSamples = evaluator.getNbSamples();
+		double[] previous = new double[nbSamples + 1];
+		double[] current = new double[nbSamples + 1];
+		int[][] argmin = new int[partitions][nbSamples + 1];
+		for(int b = 1; b <= nbSamples; b++){
+			previous[b] = evaluator.getMaxSegmentApproximationError(0, b);
+		}
+		for(int k = 2; k <= partitions; k++){
+			System.out.print(".");
+			if(k < partitions){
+				optimalLayer(evaluator, previous, current, argmin[k-1], k, nbSamples, k-1, nbSamples-1);
+			}else{
+				optimalLayer(evaluator, previous, current, argmin[k-1], nbSamples, nbSamples, k-1, nbSamples-1);
+			}
+			double[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		System.out.println();
+		
+		double[] probabilityMass = new double[partitions];
+		int b = nbSamples;
+		for(int k = partitions - 1; k >= 0; k--){
+			int a = k > 0 ? argmin[k][b] : 0;
+			probabilityMass[k] = ((double) (b - a))/nbSamples;
+			b = a;
+		}
+		System.out.println("Minimax (DP): "+previous[nbSamples]);
+		for(int j = 0; j < partitions; j++){
+			System.out.print(probabilityMass[j]+"\t");
+		}
+		System.out.println();
+		
+		return probabilityMass;
+	}
+	
+	/**
+	 * Computes D(k, b) for b in [from, to] knowing that the optimal a lies in [optFrom, optTo].
+	 */
+	private static void optimalLayer(MinimaxEvaluator evaluator, double[] previous, double[] current, int[] argmin, 
+			int from, int to, int optFrom, int optTo){
+		if(from > to) return;
+		int b = (from + to) >>> 1;
+		double best = Double.MAX_VALUE;
+		int bestA = optFrom;
+		for(int a = optFrom; a <= Math.min(optTo, b - 1); a++){
+			double value = Math.max(previous[a], evaluator.getMaxSegmentApproximationError(a, b));
+			if(value < best){
+				best = value;
+				bestA = a;
+			}
+		}
+		current[b] = best;
+		argmin[b] = bestA;
+		optimalLayer(evaluator, previous, current, argmin, from, b - 1, optFrom, bestA);
+		optimalLayer(evaluator, previous, current, argmin, b + 1, to, bestA, optTo);
+	}
+	
+	/**
+	 * First-improvement hill climbing that shifts the mass of one sample between adjacent partitions. 
+	 * Masses are kept as integer sample counts by an {@link IncrementalEvaluator}, so that each neighbour 
+	 * is scored by re-evaluating only the two partitions it changes.
+	 */
+	public static double[] hillClimbing(MRG32k3aL randomGenerator, double[] probabilityMass, int nbSamples, 
+			PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int partitions, int population){
+		return hillClimbing(randomGenerator, probabilityMass, new MinimaxEvaluator(pwcfolfs, nbSamples), partitions, population);
+	}
+	
+	/**
+	 * Hill climbing on the loss functions, sample size and pool of {@code minimaxEvaluator}; with a pool 
+	 * both neighbours of a boundary are scored concurrently over all loss functions, without one each 
+	 * neighbour is scored by an active-set evaluation that stops once it cannot improve on the incumbent.
+	 */
+	public static double[] hillClimbing(MRG32k3aL randomGenerator, double[] probabilityMass, 
+			MinimaxEvaluator minimaxEvaluator, int partitions, int population){
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(minimaxEvaluator, probabilityMass);
+		double currentApproxError = evaluator.getMaxApproximationError();
 		
 		boolean stop = false;
 		do{
 			System.out.print(".");
-			for(int k = 0; k < probabilityMass.length-1; k++){
-				double[] probabilityMassL = new double[partitions];
-				System.arraycopy(probabilityMass, 0, probabilityMassL, 0, partitions);
-				if(probabilityMassL[k] > precision){
-					probabilityMassL[k] -= precision;
-					probabilityMassL[k+1] += precision;
-				}
-				double maxApproxErrorL = 0;
-				for(int i = 0; i < pwcfolfs.length; i++){
-					maxApproxErrorL = Math.max(maxApproxErrorL,pwcfolfs[i].getMaxApproximationError(probabilityMassL, nbSamples));
-				}	
-				double[] probabilityMassR = new double[partitions];
-				System.arraycopy(probabilityMass, 0, probabilityMassR, 0, partitions);
-				if(probabilityMassR[k] < 1.0-precision){
-					probabilityMassR[k] += precision;
-					probabilityMassR[k+1] -= precision;
-				}
-				double maxApproxErrorR = 0;
-				for(int i = 0; i < pwcfolfs.length; i++){
-					maxApproxErrorR = Math.max(maxApproxErrorR,pwcfolfs[i].getMaxApproximationError(probabilityMassR, nbSamples));
+			for(int k = 0; k < partitions-1; k++){
+				double maxApproxErrorL = currentApproxError;
+				double maxApproxErrorR = currentApproxError;
+				if(minimaxEvaluator.getPool() != null && evaluator.canMove(k, -1) && evaluator.canMove(k, 1)){
+					double[] maxApproxErrors = evaluator.evaluateMoves(k, -1, 1);
+					maxApproxErrorL = maxApproxErrors[0];
+					maxApproxErrorR = maxApproxErrors[1];
+				}else{
+					if(evaluator.canMove(k, -1)) maxApproxErrorL = evaluator.evaluateMove(k, -1, currentApproxError);
+					if(maxApproxErrorL >= currentApproxError && evaluator.canMove(k, 1)) maxApproxErrorR = evaluator.evaluateMove(k, 1, currentApproxError);
 				}
 				if(maxApproxErrorL<currentApproxError){
-					System.arraycopy(probabilityMassL, 0, probabilityMass, 0, partitions);
+					evaluator.applyMove(k, -1);
 					currentApproxError = maxApproxErrorL;
 					break;
 				}else if(maxApproxErrorR<currentApproxError){
-					System.arraycopy(probabilityMassR, 0, probabilityMass, 0, partitions);
+					evaluator.applyMove(k, 1);
 					currentApproxError = maxApproxErrorR;
 					break;
 				}else{
-					if(k == probabilityMass.length-2) stop = true;
+					if(k == partitions-2) stop = true;
 				}
 			}
-			/*System.out.print(currentApproxError+": ");
-			for(int j = 0; j < partitions; j++){
-				System.out.print(probabilityMass[j]+"\t");
-			}
-			System.out.println();*/
-		}while(!stop && probabilityMass.length > 1);
+		}while(!stop && partitions > 1);
+		
+		System.arraycopy(evaluator.getProbabilityMasses(), 0, probabilityMass, 0, partitions);
 
 		System.out.println("Minimax (HC): "+currentApproxError);
 		for(int j = 0; j < partitions; j++){
@@ -117,52 +627,180 @@ public class LocalSearch {
 		return probabilityMass;
 	}
 	
-	public static double[] simpleRandomSampling(MRG32k3aL randomGenerator, int nbSamples, 
-			PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs,
-			int partitions, int population){
-
-		ArrayList<double[]> probabilityMassPool = new ArrayList<double[]>();
-		//double[][] masses = LHSampling.latin_random(population, partitions, randomGenerator);
-		for(int i = 0; i < population; i++){
-			if(i % 100 == 0)System.out.print(".");
-			double[] probabilityMass = new double[partitions];
-			double totalMass = 0;
-			for(int j = 0; j < partitions; j++){
-				probabilityMass[j] = UniformIntGen.nextInt(randomGenerator, 1, nbSamples);
-				//probabilityMass[j] = masses[i][j];
-				totalMass += probabilityMass[j];
-			}
-			for(int j = 0; j < partitions; j++){
-				probabilityMass[j] /= totalMass;
-			}
-			
-			probabilityMassPool.add(probabilityMass);
+	/**
+	 * Coarse-to-fine hill climbing: a first climb on the means of {@code subsample} blocks of equal mass of 
+	 * the sample, then one on the full sample, each with boundary shifts halved from a coarse step down to 
+	 * one sample.
+	 */
+	public static double[] multiresolutionHillClimbing(double[] probabilityMass, MinimaxEvaluator evaluator, int subsample){
+		int nbSamples = evaluator.getNbSamples();
+		double[] startMass = probabilityMass;
+		int initialStep = Math.max(1, nbSamples/COARSE_STEPS);
+		if(subsample < nbSamples){
+			PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = evaluator.getLossFunctions();
+			PiecewiseComplementaryFirstOrderLossFunction[] coarsenings = new PiecewiseComplementaryFirstOrderLossFunction[pwcfolfs.length];
+			for(int i = 0; i < pwcfolfs.length; i++) coarsenings[i] = pwcfolfs[i].getCoarsening(nbSamples, subsample);
+			MinimaxEvaluator coarseEvaluator = new MinimaxEvaluator(coarsenings, subsample, evaluator.getPool());
+			IncrementalEvaluator coarse = new IncrementalEvaluator(coarseEvaluator, startMass);
+			climb(coarse, Math.max(1, subsample/COARSE_STEPS));
+			startMass = coarse.getProbabilityMasses();
+			initialStep = Math.max(1, nbSamples/subsample);
 		}
+		IncrementalEvaluator evaluatorFull = new IncrementalEvaluator(evaluator, startMass);
+		climb(evaluatorFull, initialStep);
 		
+		double[] bestMass = evaluatorFull.getProbabilityMasses();
+		System.out.println("Minimax (MR): "+evaluatorFull.getMaxApproximationError());
+		for(int j = 0; j < bestMass.length; j++){
+			System.out.print(bestMass[j]+"\t");
+		}
 		System.out.println();
-
-		int counter = 0;
-		double minMaxApproxError = Double.MAX_VALUE;
-		double[] bestMass = null;
-		for(double[] probabilityMass : probabilityMassPool){
-			if(++counter % 100 == 0) System.out.print(counter+"..");
-			double maxApproxError = 0;
-			for(int i = 0; i < pwcfolfs.length; i++){
-				maxApproxError = Math.max(maxApproxError,pwcfolfs[i].getMaxApproximationError(probabilityMass, nbSamples));
-			}
-			if(maxApproxError<minMaxApproxError){
-				bestMass = probabilityMass;
-				minMaxApproxError = maxApproxError;
+		
+		return bestMass;
+	}
+	
+	/**
+	 * First-improvement hill climbing with boundary shifts of {@code initialStep} samples, halved down to one 
+	 * sample whenever no shift improves.
+	 */
+	private static void climb(IncrementalEvaluator evaluator, int initialStep){
+		int boundaries = evaluator.getPartitions() - 1;
+		double currentApproxError = evaluator.getMaxApproximationError();
+		for(int step = initialStep; step >= 1; step /= 2){
+			System.out.print(".");
+			boolean improved = true;
+			while(improved){
+				improved = false;
+				for(int k = 0; k < boundaries && !improved; k++){
+					for(int delta = -step; delta <= step && !improved; delta += 2*step){
+						if(!evaluator.canMove(k, delta)) continue;
+						double maxApproxError = evaluator.evaluateMove(k, delta, currentApproxError);
+						if(maxApproxError < currentApproxError){
+							evaluator.applyMove(k, delta);
+							currentApproxError = maxApproxError;
+							improved = true;
+						}
+					}
+				}
 			}
 		}
-
-		System.out.println("Minimax (SRS): "+minMaxApproxError);
+		System.out.println();
+	}
+	
+	public static double[] simpleRandomSampling(MRG32k3aL randomGenerator, int nbSamples, 
+			PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs,
+			int partitions, int population){
+		return simpleRandomSampling(randomGenerator, new MinimaxEvaluator(pwcfolfs, nbSamples), partitions, population);
+	}
+	
+	/**
+	 * Simple random sampling scored by {@code evaluator}; see {@link #parallelRandomSampling}.
+	 */
+	public static double[] simpleRandomSampling(MRG32k3aL randomGenerator, MinimaxEvaluator evaluator, 
+			int partitions, int population){
+		return parallelRandomSampling(randomGenerator, evaluator, partitions, population);
+	}
+	
+	/**
+	 * Streaming simple random sampling; returns the best candidate of {@link #sampleTopCandidates}, so the 
+	 * result does not depend on the number of threads.
+	 */
+	public static double[] parallelRandomSampling(MRG32k3aL randomGenerator, MinimaxEvaluator evaluator, 
+			int partitions, long population){
+		Incumbent incumbent = sampleTopCandidates(randomGenerator, evaluator, partitions, population, 1)[0];
+		System.out.println("Minimax (SRS): "+incumbent.maxApproximationError);
 		for(int j = 0; j < partitions; j++){
-			System.out.print(bestMass[j]+"\t");
+			System.out.print(incumbent.probabilityMass[j]+"\t");
 		}
 		System.out.println();
 		
-		return bestMass;
+		return incumbent.probabilityMass;
+	}
+	
+	/**
+	 * Draws {@code population} candidates in blocks of {@link #SEARCH_BLOCK_SIZE}, block b from the b-th 
+	 * substream of {@code randomGenerator}, scores them on the evaluator's pool and returns the {@code size} 
+	 * best, best first. Each worker keeps its own best {@code size}, and candidates are evaluated against the 
+	 * least size-th best error of any worker; ties go to the earliest candidate, so the result does not 
+	 * depend on the number of threads.
+	 */
+	static Incumbent[] sampleTopCandidates(MRG32k3aL randomGenerator, MinimaxEvaluator evaluator, 
+			int partitions, long population, int size){
+		int nbSamples = evaluator.getNbSamples();
+		long blocks = (population + SEARCH_BLOCK_SIZE - 1)/SEARCH_BLOCK_SIZE;
+		AtomicLong nextBlock = new AtomicLong();
+		AtomicLong threshold = new AtomicLong(Double.doubleToLongBits(Double.MAX_VALUE));
+		ConcurrentLinkedQueue<Incumbent> survivors = new ConcurrentLinkedQueue<Incumbent>();
+		
+		Runnable worker = () -> {
+			PriorityQueue<Incumbent> top = new PriorityQueue<Incumbent>(size, Incumbent.BEST_FIRST.reversed());
+			double[] probabilityMass = new double[partitions];
+			while(true){
+				MRG32k3aL stream;
+				long block;
+				synchronized(randomGenerator){
+					block = nextBlock.getAndIncrement();
+					if(block >= blocks) break;
+					randomGenerator.resetNextSubstream();
+					stream = randomGenerator.clone();
+				}
+				long end = Math.min(population, (block + 1)*SEARCH_BLOCK_SIZE);
+				for(long c = block*SEARCH_BLOCK_SIZE; c < end; c++){
+					drawProbabilityMass(stream, nbSamples, probabilityMass);
+					double worst = Double.longBitsToDouble(threshold.get());
+					if(top.size() == size) worst = Math.min(worst, top.peek().maxApproximationError);
+					double bound = worst == Double.MAX_VALUE ? Double.MAX_VALUE : Math.nextUp(worst);
+					double maxApproxError = evaluator.getMaxApproximationError(probabilityMass, bound);
+					if(maxApproxError >= bound) continue;
+					if(top.size() == size){
+						Incumbent last = top.peek();
+						if(maxApproxError > last.maxApproximationError || 
+								(maxApproxError == last.maxApproximationError && c > last.index)) continue;
+						top.poll();
+					}
+					top.add(new Incumbent(maxApproxError, c, probabilityMass.clone()));
+					if(top.size() == size) lower(threshold, top.peek().maxApproximationError);
+				}
+			}
+			survivors.addAll(top);
+		};
+		
+		ForkJoinPool pool = evaluator.getPool();
+		if(pool == null){
+			worker.run();
+		}else{
+			ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for(int w = 0; w < pool.getParallelism(); w++) tasks.add(pool.submit(worker));
+			for(ForkJoinTask<?> task : tasks) task.join();
+		}
+		
+		Incumbent[] candidates = survivors.toArray(new Incumbent[0]);
+		Arrays.sort(candidates, Incumbent.BEST_FIRST);
+		return Arrays.copyOf(candidates, Math.min(size, candidates.length));
+	}
+	
+	/**
+	 * Lowers {@code threshold}, the bits of a double, to {@code value} if it is smaller.
+	 */
+	private static void lower(AtomicLong threshold, double value){
+		long current = threshold.get();
+		while(value < Double.longBitsToDouble(current) && !threshold.compareAndSet(current, Double.doubleToLongBits(value))){
+			current = threshold.get();
+		}
+	}
+	
+	/**
+	 * Draws a probability mass vector with independent integer weights in [1, nbSamples], normalised to one.
+	 */
+	static void drawProbabilityMass(MRG32k3aL randomGenerator, int nbSamples, double[] probabilityMass){
+		double totalMass = 0;
+		for(int j = 0; j < probabilityMass.length; j++){
+			probabilityMass[j] = UniformIntGen.nextInt(randomGenerator, 1, nbSamples);
+			totalMass += probabilityMass[j];
+		}
+		for(int j = 0; j < probabilityMass.length; j++){
+			probabilityMass[j] /= totalMass;
+		}
 	}
 	
 }
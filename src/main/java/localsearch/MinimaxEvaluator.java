@@ -0,0 +1,192 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
+
+/**
+ * Computes the minimax objective, the maximum approximation error over an array of loss functions, for 
+ * one or more candidate probability mass vectors. With a {@link ForkJoinPool} the loss functions, and the 
+ * candidates of a batch, are evaluated in parallel and reduced with a maximum, which does not depend on 
+ * the order of evaluation; without one they are evaluated sequentially.
+ */
+public class MinimaxEvaluator {
+	PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs;
+	int nbSamples;
+	ForkJoinPool pool;
+	CycleOrder cycleOrder;
+	BoundaryCache cache;
+	LongAdder evaluations = new LongAdder();
+	
+	public MinimaxEvaluator(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int nbSamples){
+		this(pwcfolfs, nbSamples, null);
+	}
+	
+	/**
+	 * @param pwcfolfs the loss functions
+	 * @param nbSamples the number of samples
+	 * @param pool the pool on which loss functions are evaluated, or {@code null} to evaluate them sequentially
+	 */
+	public MinimaxEvaluator(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int nbSamples, ForkJoinPool pool){
+		this.pwcfolfs = pwcfolfs;
+		this.nbSamples = nbSamples;
+		this.pool = pool;
+		this.cycleOrder = new CycleOrder(pwcfolfs.length);
+	}
+	
+	public PiecewiseComplementaryFirstOrderLossFunction[] getLossFunctions(){
+		return this.pwcfolfs;
+	}
+	
+	public int getNbSamples(){
+		return this.nbSamples;
+	}
+	
+	public ForkJoinPool getPool(){
+		return this.pool;
+	}
+	
+	/**
+	 * Number of slots of the table of partitions already evaluated shared by the searches of an evaluator.
+	 */
+	public static final int CACHE_CAPACITY = 1 << 16;
+	
+	/**
+	 * Returns the table of partitions into {@code partitions} already evaluated, replacing the current one 
+	 * if it holds another number of partitions or if the sample of a loss function has changed since.
+	 */
+	synchronized BoundaryCache getCache(int partitions){
+		if(this.cache == null || this.cache.width != partitions - 1 || !this.cache.isCurrent(this.pwcfolfs)){
+			this.cache = new BoundaryCache(partitions - 1, CACHE_CAPACITY, this.pwcfolfs);
+		}
+		return this.cache;
+	}
+	
+	/**
+	 * Returns the number of loss function evaluations performed so far.
+	 */
+	public long getEvaluations(){
+		return this.evaluations.sum();
+	}
+	
+	public double getMaxApproximationError(double[] probabilityMass){
+		if(this.pool == null){
+			return this.getSequentialMaxApproximationError(probabilityMass);
+		}else{
+			this.evaluations.add(this.pwcfolfs.length);
+			return this.pool.submit(() -> 
+				IntStream.range(0, this.pwcfolfs.length).parallel()
+					.mapToDouble(i -> this.pwcfolfs[i].getMaxApproximationError(probabilityMass, this.nbSamples))
+					.reduce(0, Math::max)
+			).join();
+		}
+	}
+	
+	private double getSequentialMaxApproximationError(double[] probabilityMass){
+		this.evaluations.add(this.pwcfolfs.length);
+		double maxApproxError = 0;
+		for(int i = 0; i < this.pwcfolfs.length; i++){
+			maxApproxError = Math.max(maxApproxError, this.pwcfolfs[i].getMaxApproximationError(probabilityMass, this.nbSamples));
+		}
+		return maxApproxError;
+	}
+	
+	/**
+	 * Active-set evaluation with early abort. Loss functions are evaluated on the calling thread, those 
+	 * that most often set the maximum first, and the evaluation stops as soon as the partial maximum 
+	 * reaches {@code bound}. Candidates that never reach it are evaluated on every loss function.
+	 * 
+	 * @param probabilityMass the candidate probability masses
+	 * @param bound the error of the incumbent
+	 * @return the maximum approximation error if it is below {@code bound}, otherwise a partial maximum 
+	 * not smaller than {@code bound}
+	 */
+	public double getMaxApproximationError(double[] probabilityMass, double bound){
+		int[] order = this.cycleOrder.getOrder();
+		double maxApproxError = 0;
+		int worst = order[0];
+		int evaluated = 0;
+		for(int i : order){
+			evaluated++;
+			double approxError = this.pwcfolfs[i].getMaxApproximationError(probabilityMass, this.nbSamples);
+			if(approxError > maxApproxError){
+				maxApproxError = approxError;
+				worst = i;
+			}
+			if(maxApproxError >= bound) break;
+		}
+		this.evaluations.add(evaluated);
+		this.cycleOrder.record(worst);
+		return maxApproxError;
+	}
+	
+	/**
+	 * Returns the maximum over the loss functions of the approximation error of a partition spanning 
+	 * samples {@code from} (inclusive) to {@code to} (exclusive) of the sorted samples. It does not depend 
+	 * on the other partitions.
+	 */
+	public double getMaxSegmentApproximationError(int from, int to){
+		this.evaluations.add(this.pwcfolfs.length);
+		double maxApproxError = 0;
+		for(int i = 0; i < this.pwcfolfs.length; i++){
+			maxApproxError = Math.max(maxApproxError, 
+					this.pwcfolfs[i].getSegmentApproximationError(((double) from)/this.nbSamples, ((double) to)/this.nbSamples, this.nbSamples));
+		}
+		return maxApproxError;
+	}
+	
+	/**
+	 * Evaluates a batch of candidates, fanning out over every (candidate, loss function) pair.
+	 * 
+	 * @param probabilityMasses the candidate probability mass vectors
+	 * @return the maximum approximation error of each candidate
+	 */
+	public double[] getMaxApproximationErrors(double[][] probabilityMasses){
+		double[] maxApproxErrors = new double[probabilityMasses.length];
+		if(this.pool == null){
+			for(int c = 0; c < probabilityMasses.length; c++){
+				maxApproxErrors[c] = this.getMaxApproximationError(probabilityMasses[c]);
+			}
+		}else{
+			int cycles = this.pwcfolfs.length;
+			double[] approxErrors = new double[probabilityMasses.length*cycles];
+			this.evaluations.add(approxErrors.length);
+			this.pool.submit(() -> 
+				IntStream.range(0, approxErrors.length).parallel().forEach(p -> 
+					approxErrors[p] = this.pwcfolfs[p % cycles].getMaxApproximationError(probabilityMasses[p / cycles], this.nbSamples))
+			).join();
+			for(int p = 0; p < approxErrors.length; p++){
+				maxApproxErrors[p / cycles] = Math.max(maxApproxErrors[p / cycles], approxErrors[p]);
+			}
+		}
+		return maxApproxErrors;
+	}
+}
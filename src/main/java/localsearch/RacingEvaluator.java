@@ -0,0 +1,147 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package localsearch;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import lossfunction.LossFunctionIndex;
+import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
+
+/**
+ * A {@link MinimaxEvaluator} whose bounded evaluations race candidates on nested subsamples. Level j of a 
+ * loss function of size m replaces the sample by the means of the m blocks of equal probability mass 1/m, 
+ * read off the partial expectation, so each level is a coarsening of the next finer one; levels go from the 
+ * coarsest with at least {@code minSubsample} samples up to half the sample. A candidate is scored on every 
+ * level in turn, coarsest first, and rejected as soon as its error exceeds the bound by more than the 
+ * confidence margin of the level, {@code tolerance} plus the largest relative deviation from the full-sample 
+ * error observed at that level; candidates that survive every level are scored on the full sample. Margins 
+ * are learnt from the first {@code RACING_WARMUP} candidates, which are all scored on the full sample, and 
+ * from every survivor. Loss functions without a sample, such as the exact ones, are only scored on the full 
+ * sample. The levels are built from the samples at construction.
+ */
+public class RacingEvaluator extends MinimaxEvaluator {
+	static final int RACING_WARMUP = 20;
+	
+	final int minSubsample;
+	final double tolerance;
+	final int[] levelSizes;
+	final LossFunctionIndex[][] levels;
+	final AtomicLongArray deviations;
+	final AtomicInteger observations = new AtomicInteger();
+	final LongAdder subsampleEvaluations = new LongAdder();
+	
+	/**
+	 * @param minSubsample the least sample size of the coarsest level
+	 * @param tolerance the relative slack added to the learnt confidence margins
+	 */
+	public RacingEvaluator(PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs, int nbSamples, ForkJoinPool pool, 
+			int minSubsample, double tolerance){
+		super(pwcfolfs, nbSamples, pool);
+		this.minSubsample = minSubsample;
+		this.tolerance = tolerance;
+		int nbLevels = 0;
+		while((nbSamples >> (nbLevels + 1)) >= minSubsample) nbLevels++;
+		this.levelSizes = new int[nbLevels];
+		for(int l = 0; l < nbLevels; l++) this.levelSizes[l] = nbSamples >> (nbLevels - l);
+		this.levels = new LossFunctionIndex[pwcfolfs.length][];
+		for(int i = 0; i < pwcfolfs.length; i++){
+			this.levels[i] = pwcfolfs[i].hasSample() && nbLevels > 0 ? 
+					buildLevels(pwcfolfs[i].getLossFunctionIndex(nbSamples), this.levelSizes) : new LossFunctionIndex[0];
+		}
+		this.deviations = new AtomicLongArray(nbLevels);
+	}
+	
+	/**
+	 * Returns the number of loss functions evaluated so far on a level; {@link #getEvaluations()} counts 
+	 * those evaluated on the full sample. Both cost a few binary searches per partition, whatever the size.
+	 */
+	public long getSubsampleEvaluations(){
+		return this.subsampleEvaluations.sum();
+	}
+	
+	/**
+	 * Builds one level per size in {@code levelSizes} from the block means of {@code sample}.
+	 */
+	private static LossFunctionIndex[] buildLevels(LossFunctionIndex sample, int[] levelSizes){
+		LossFunctionIndex[] ladder = new LossFunctionIndex[levelSizes.length];
+		for(int l = 0; l < ladder.length; l++){
+			ladder[l] = new LossFunctionIndex(sample.getBlockMeans(levelSizes[l]));
+		}
+		return ladder;
+	}
+	
+	@Override
+	public double getMaxApproximationError(double[] probabilityMass, double bound){
+		int nbLevels = this.levelSizes.length;
+		if(nbLevels == 0 || bound == Double.MAX_VALUE) return super.getMaxApproximationError(probabilityMass, bound);
+		
+		double[] levelErrors = new double[nbLevels];
+		boolean warm = this.isWarm();
+		for(int l = 0; l < nbLevels; l++){
+			double maxApproxError = 0;
+			for(int i = 0; i < this.pwcfolfs.length; i++){
+				LossFunctionIndex[] ladder = this.levels[i];
+				if(ladder.length == 0) continue;
+				maxApproxError = Math.max(maxApproxError, ladder[l].getMaxApproximationError(probabilityMass, null, null));
+				this.subsampleEvaluations.increment();
+			}
+			levelErrors[l] = maxApproxError;
+			if(warm && maxApproxError > bound*(1 + this.tolerance + this.getDeviation(l))) return maxApproxError;
+		}
+		
+		double maxApproxError = super.getMaxApproximationError(probabilityMass, warm ? bound : Double.MAX_VALUE);
+		if(!warm || maxApproxError < bound) this.observe(levelErrors, maxApproxError);
+		return maxApproxError;
+	}
+	
+	boolean isWarm(){
+		return this.observations.get() >= RACING_WARMUP;
+	}
+	
+	double getDeviation(int level){
+		return Double.longBitsToDouble(this.deviations.get(level));
+	}
+	
+	/**
+	 * Records the relative deviations of the subsample errors of a candidate from its full-sample error.
+	 */
+	void observe(double[] levelErrors, double maxApproxError){
+		if(maxApproxError <= 0) return;
+		for(int l = 0; l < levelErrors.length; l++){
+			double deviation = Math.abs(levelErrors[l]/maxApproxError - 1);
+			long current = this.deviations.get(l);
+			while(deviation > Double.longBitsToDouble(current) && 
+					!this.deviations.compareAndSet(l, current, Double.doubleToLongBits(deviation))){
+				current = this.deviations.get(l);
+			}
+		}
+		this.observations.incrementAndGet();
+	}
+}
@@ -31,6 +31,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartFrame;
@@ -49,44 +52,211 @@ import umontreal.ssj.probdist.PoissonDist;
 import umontreal.ssj.randvar.UniformGen;
 import umontreal.ssj.rng.MRG32k3aL;
 
+/**
+ * Complementary first order loss function of the demand over a cycle, estimated from a sample. Samples 
+ * and their indices are generated lazily under the instance lock and are immutable once published, so 
+ * an instance can be queried from several threads at once.
+ */
 public class ComplementaryFirstOrderLossFunction {
+	/**
+	 * Number of scenarios drawn from each substream in parallel sampling mode
+	 */
+	public static final int SAMPLING_BLOCK_SIZE = 10000;
+	
 	Distribution[] distributions;
 	long[] seed;
 	MRG32k3aL randGenerator;
+	HashMap<Integer, SortedSample> sampleStore;
+	HashMap<Integer, LossFunctionIndex> indexStore;
+	HashMap<Integer, EmpiricalDist> distributionStore;
+	volatile LossFunctionIndex lastIndex;
+	volatile long sampleVersion;
+	ForkJoinPool samplingPool;
 	
 	public ComplementaryFirstOrderLossFunction(Distribution[] distributions, long[] seed){
+		this.distributions = distributions;
+		this.seed = seed;
+		this.randGenerator = new MRG32k3aL();
+		this.randGenerator.setSeed(seed);
+		this.sampleStore = new HashMap<Integer, SortedSample>();
+		this.indexStore = new HashMap<Integer, LossFunctionIndex>();
+		this.distributionStore = new HashMap<Integer, EmpiricalDist>();
+	}
+	
+	/**
+	 * Constructor for subclasses that do not sample the demand; the random stream starts from the default seed.
+	 */
+	protected ComplementaryFirstOrderLossFunction(Distribution[] distributions){
 		this.distributions = distributions;
 		this.randGenerator = new MRG32k3aL();
+		this.sampleStore = new HashMap<Integer, SortedSample>();
+		this.indexStore = new HashMap<Integer, LossFunctionIndex>();
+		this.distributionStore = new HashMap<Integer, EmpiricalDist>();
+	}
+	
+	/**
+	 * Changes the seed used to draw the sample and discards every sample generated with the previous seed.
+	 * 
+	 * @param seed the new random seed
+	 */
+	public synchronized void setSeed(long[] seed){
+		this.seed = seed;
 		this.randGenerator.setSeed(seed);
+		this.invalidateSampleStore();
+	}
+	
+	/**
+	 * Enables parallel sampling on {@code samplingPool}, or restores sequential sampling if it is {@code null}. 
+	 * In parallel mode the scenarios are split into blocks of {@link #SAMPLING_BLOCK_SIZE}; block b is drawn 
+	 * from the b-th substream of the seed, so the sample does not depend on the number of threads. It differs, 
+	 * however, from the sample drawn in sequential mode, which uses a single stream.
+	 * 
+	 * @param samplingPool the pool that draws the blocks, or {@code null}
+	 */
+	public synchronized void setParallelSampling(ForkJoinPool samplingPool){
+		this.samplingPool = samplingPool;
+		this.invalidateSampleStore();
 	}
 	
-	private double[][] sample(int nbSamples){
-		this.randGenerator.resetStartStream();
-		double[][] sampleMatrix = new double[nbSamples][this.distributions.length];
-		for(int i = 0; i < sampleMatrix.length; i++){
-			for(int j = 0; j < sampleMatrix[i].length; j++){
-				sampleMatrix[i][j] = distributions[j].inverseF(UniformGen.nextDouble(this.randGenerator, 0, 1));
+	/**
+	 * Discards all samples generated so far; the next query regenerates them from the seed.
+	 */
+	public synchronized void invalidateSampleStore(){
+		this.sampleStore.clear();
+		this.indexStore.clear();
+		this.distributionStore.clear();
+		this.lastIndex = null;
+		this.sampleVersion++;
+	}
+	
+	/**
+	 * Draws {@code nbSamples} scenarios and adds the period demands of each scenario straight into 
+	 * {@code observations}, so that no scenario-by-period matrix is ever allocated.
+	 */
+	private void sample(double[] observations){
+		if(this.samplingPool == null){
+			this.randGenerator.resetStartStream();
+			this.sample(observations, 0, observations.length, this.randGenerator);
+		}else{
+			int nbBlocks = (observations.length + SAMPLING_BLOCK_SIZE - 1)/SAMPLING_BLOCK_SIZE;
+			MRG32k3aL[] blockGenerators = new MRG32k3aL[nbBlocks];
+			this.randGenerator.resetStartStream();
+			for(int b = 0; b < nbBlocks; b++){
+				blockGenerators[b] = this.randGenerator.clone();
+				this.randGenerator.resetNextSubstream();
 			}
+			this.samplingPool.submit(() -> 
+				IntStream.range(0, nbBlocks).parallel().forEach(b -> 
+					this.sample(observations, 
+							b*SAMPLING_BLOCK_SIZE, 
+							Math.min(observations.length, (b+1)*SAMPLING_BLOCK_SIZE), 
+							blockGenerators[b]))
+			).join();
 		}
-		return sampleMatrix;
 	}
 	
-	public EmpiricalDist getEmpiricalDistribution(int nbSamples){
-		double[][] sampleMatrix = this.sample(nbSamples);
-		double[] observations = new double[nbSamples];
-		for(int i = 0; i < sampleMatrix.length; i++){
-			for(int j = 0; j < sampleMatrix[i].length; j++){
-				observations[i] += sampleMatrix[i][j];
+	private void sample(double[] observations, int from, int to, MRG32k3aL generator){
+		for(int i = from; i < to; i++){
+			observations[i] = 0;
+			for(int j = 0; j < this.distributions.length; j++){
+				observations[i] += distributions[j].inverseF(UniformGen.nextDouble(generator, 0, 1));
 			}
 		}
+	}
+	
+	/**
+	 * Stores {@code observations}, drawn by the caller, as the sample of size {@code observations.length}, 
+	 * in place of the sample this loss function would draw from its own seed. The array is sorted in place 
+	 * and must not be modified afterwards. The sample is discarded when the sample store is invalidated.
+	 * 
+	 * @param observations the observations of the sample
+	 */
+	public synchronized void setSample(double[] observations){
 		Arrays.sort(observations);
-		EmpiricalDist empDistribution = new EmpiricalDist(observations);
+		this.sampleStore.put(observations.length, new SortedSample(observations));
+		this.indexStore.remove(observations.length);
+		this.distributionStore.remove(observations.length);
+		this.lastIndex = null;
+		this.sampleVersion++;
+	}
+	
+	/**
+	 * Returns a counter that changes whenever the samples are discarded or replaced, so that callers can 
+	 * tell whether quantities they derived from the samples are still valid.
+	 */
+	public long getSampleVersion(){
+		return this.sampleVersion;
+	}
+	
+	/**
+	 * Returns {@code true} if this loss function is estimated from a random sample of the demand, 
+	 * {@code false} if it is computed exactly.
+	 */
+	public boolean hasSample(){
+		return true;
+	}
+	
+	/**
+	 * Returns the sorted sample of size {@code nbSamples}. The sample is generated and sorted once for 
+	 * the current seed and then served from the sample store on every later call.
+	 * 
+	 * @param nbSamples the number of samples
+	 * @return the sorted sample
+	 */
+	public synchronized SortedSample getSortedSample(int nbSamples){
+		SortedSample sortedSample = this.sampleStore.get(nbSamples);
+		if(sortedSample == null){
+			double[] observations = new double[nbSamples];
+			this.sample(observations);
+			Arrays.sort(observations);
+			sortedSample = new SortedSample(observations);
+			this.sampleStore.put(nbSamples, sortedSample);
+		}
+		return sortedSample;
+	}
+	
+	/**
+	 * Returns the empirical distribution of the sorted sample of size {@code nbSamples}. The distribution 
+	 * is built once per sample and kept in the sample store.
+	 * 
+	 * @param nbSamples the number of samples
+	 * @return the empirical distribution
+	 */
+	public synchronized EmpiricalDist getEmpiricalDistribution(int nbSamples){
+		EmpiricalDist empDistribution = this.distributionStore.get(nbSamples);
+		if(empDistribution == null){
+			empDistribution = this.getSortedSample(nbSamples).toEmpiricalDist();
+			this.distributionStore.put(nbSamples, empDistribution);
+		}
 		return empDistribution;
 	}
 	
+	/**
+	 * Returns the prefix-sum index over the sorted sample of size {@code nbSamples}. The index is built 
+	 * once per sample and kept in the sample store.
+	 * 
+	 * @param nbSamples the number of samples
+	 * @return the loss function index
+	 */
+	public LossFunctionIndex getLossFunctionIndex(int nbSamples){
+		LossFunctionIndex index = this.lastIndex;
+		if(index != null && index.getN() == nbSamples) return index;
+		return this.loadLossFunctionIndex(nbSamples);
+	}
+	
+	private synchronized LossFunctionIndex loadLossFunctionIndex(int nbSamples){
+		LossFunctionIndex index = this.indexStore.get(nbSamples);
+		if(index == null){
+			index = new LossFunctionIndex(this.getSortedSample(nbSamples));
+			this.indexStore.put(nbSamples, index);
+		}
+		this.lastIndex = index;
+		return index;
+	}
+	
 	public XYSeries getDistributionXYSeries(int nbSamples, double precision){
 		XYSeries series = new XYSeries("Empirical distribution");
-		EmpiricalDist empDistribution = this.getEmpiricalDistribution(nbSamples);
+		SortedSample empDistribution = this.getSortedSample(nbSamples);
 		for(int i = 0; i < empDistribution.getN(); i++){
 			while(i>0 && i<empDistribution.getN() && empDistribution.getObs(i)==empDistribution.getObs(i-1))i++;
 			series.add(empDistribution.getObs(i),empDistribution.cdf(empDistribution.getObs(i)));
@@ -104,18 +274,68 @@ public class ComplementaryFirstOrderLossFunction {
 	}
 	
 	public double getLossFunctionValue(double x, int nbSamples){
-		EmpiricalDist empDistribution = this.getEmpiricalDistribution(nbSamples);
-		double value = 0;
-		for(int i = 0; i < empDistribution.getN(); i++){
-			value += Math.max(x-empDistribution.getObs(i),0)/empDistribution.getN();
-		}
-		return value;
+		return this.getLossFunctionIndex(nbSamples).getLossFunctionValue(x);
+	}
+	
+	/**
+	 * Returns the partial expectation of the lowest {@code probabilityMass} of the demand distribution, 
+	 * that is the integral of its quantile function from 0 to {@code probabilityMass}.
+	 * 
+	 * @param probabilityMass the cumulative probability mass
+	 * @param nbSamples the number of samples
+	 * @return the partial expectation
+	 */
+	public double getPartialExpectation(double probabilityMass, int nbSamples){
+		return this.getLossFunctionIndex(nbSamples).getPartialExpectation(probabilityMass);
+	}
+	
+	/**
+	 * Returns the quantile of the demand at {@code probabilityMass}, the derivative of the partial expectation.
+	 */
+	public double getQuantile(double probabilityMass, int nbSamples){
+		return this.getLossFunctionIndex(nbSamples).getQuantile(probabilityMass);
+	}
+	
+	/**
+	 * Returns the distribution function of the demand at {@code x}, the derivative of the loss function.
+	 */
+	public double getCdf(double x, int nbSamples){
+		return this.getLossFunctionIndex(nbSamples).cdf(x);
+	}
+	
+	/**
+	 * Evaluates the loss function over a sorted grid in O(N + M) by a merge sweep over the sorted sample.
+	 * 
+	 * @param xs the grid, sorted in ascending order
+	 * @param nbSamples the number of samples
+	 * @return the loss function value at each grid point
+	 */
+	public double[] getLossFunctionValues(double[] xs, int nbSamples){
+		return this.getLossFunctionIndex(nbSamples).getLossFunctionValues(xs);
+	}
+	
+	public double[] getLossFunctionValues(double min, double max, int nbSamples, double precision){
+		return this.getLossFunctionValues(getGrid(min, max, precision), nbSamples);
+	}
+	
+	/**
+	 * Returns the grid min, min+precision, ... up to max, built by the same accumulation used by the plots.
+	 */
+	public static double[] getGrid(double min, double max, double precision){
+		int points = 0;
+		for(double x = min; x <= max; x+= precision) points++;
+		double[] xs = new double[points];
+		int i = 0;
+		for(double x = min; x <= max; x+= precision) xs[i++] = x;
+		return xs;
 	}
 	
 	public XYSeries getLossFunctionXYSeries(double min, double max, int nbSamples, double precision){
 		XYSeries series = new XYSeries("Empirical complementary loss function");
-		for(double x = min; x <= max; x+= precision){
-			series.add(x, getLossFunctionValue(x, nbSamples));
+		double[] xs = getGrid(min, max, precision);
+		double[] values = this.getLossFunctionValues(xs, nbSamples);
+		for(int i = 0; i < xs.length; i++){
+			series.add(xs[i], values[i]);
 		}
 		return series;
 	}
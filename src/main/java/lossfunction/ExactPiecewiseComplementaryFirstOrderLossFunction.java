@@ -0,0 +1,330 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lossfunction;
+
+import java.util.ArrayList;
+
+import org.jfree.data.xy.XYSeries;
+
+import umontreal.ssj.probdist.DiscreteDistributionInt;
+import umontreal.ssj.probdist.Distribution;
+import umontreal.ssj.probdist.EmpiricalDist;
+import umontreal.ssj.probdist.NormalDist;
+import umontreal.ssj.probdist.PoissonDist;
+
+/**
+ * Piecewise complementary first order loss function computed without sampling. 
+ * 
+ * If every period demand is normally distributed, the cycle demand is normal and all quantities are 
+ * obtained in closed form. Otherwise normal and Poisson period demands are first merged into a single 
+ * normal and a single Poisson demand, and the cycle distribution is obtained by convolution on a lattice: 
+ * the unit lattice when every period demand is integer-valued, a lattice of {@code latticePoints} points 
+ * over the cycle support otherwise. The period mass functions are convolved by fast Fourier transform 
+ * and the cycle mass function is truncated at {@code tailMass} in each tail.
+ * 
+ * The {@code nbSamples} argument of the loss function methods is ignored; the sample based methods 
+ * ({@link #getSortedSample(int)} and the methods built on it) use the quantile sample of size {@code nbSamples}.
+ */
+public class ExactPiecewiseComplementaryFirstOrderLossFunction extends
+PiecewiseComplementaryFirstOrderLossFunction {
+	/**
+	 * Default probability mass left out in each tail when a distribution is truncated to a finite support
+	 */
+	public static final double DEFAULT_TAIL_MASS = 1e-12;
+	
+	public static final int DEFAULT_LATTICE_POINTS = 4096;
+	
+	NormalDist cycleNormalDistribution;
+	WeightedSupport cycleSupport;
+	
+	public ExactPiecewiseComplementaryFirstOrderLossFunction(Distribution[] distributions){
+		this(distributions, DEFAULT_LATTICE_POINTS, DEFAULT_TAIL_MASS);
+	}
+	
+	/**
+	 * @param distributions the demand distribution in each period of the cycle
+	 * @param latticePoints the number of lattice points over the cycle support when some period demand is not integer-valued
+	 * @param tailMass the probability mass that may be left out in each tail of a period or cycle distribution
+	 */
+	public ExactPiecewiseComplementaryFirstOrderLossFunction(Distribution[] distributions, int latticePoints, double tailMass){
+		super(distributions);
+		
+		double mu = 0;
+		double variance = 0;
+		double lambda = 0;
+		boolean normal = false;
+		boolean poisson = false;
+		ArrayList<Distribution> cycleDistributions = new ArrayList<Distribution>();
+		for(int i = 0; i < distributions.length; i++){
+			if(distributions[i] instanceof NormalDist){
+				mu += ((NormalDist) distributions[i]).getMu();
+				variance += Math.pow(((NormalDist) distributions[i]).getSigma(), 2);
+				normal = true;
+			}else if(distributions[i] instanceof PoissonDist){
+				lambda += ((PoissonDist) distributions[i]).getLambda();
+				poisson = true;
+			}else{
+				cycleDistributions.add(distributions[i]);
+			}
+		}
+		
+		if(normal && !poisson && cycleDistributions.isEmpty()){
+			this.cycleNormalDistribution = new NormalDist(mu, Math.sqrt(variance));
+		}else{
+			if(normal) cycleDistributions.add(new NormalDist(mu, Math.sqrt(variance)));
+			if(poisson) cycleDistributions.add(new PoissonDist(lambda));
+			this.cycleSupport = convolve(cycleDistributions.toArray(new Distribution[cycleDistributions.size()]), latticePoints, tailMass);
+		}
+	}
+	
+	private static boolean isIntegerValued(Distribution distribution){
+		if(distribution instanceof DiscreteDistributionInt){
+			return true;
+		}else if(distribution instanceof EmpiricalDist){
+			EmpiricalDist empDistribution = (EmpiricalDist) distribution;
+			for(int i = 0; i < empDistribution.getN(); i++){
+				if(empDistribution.getObs(i) != Math.rint(empDistribution.getObs(i))) return false;
+			}
+			return true;
+		}else{
+			return false;
+		}
+	}
+	
+	private static WeightedSupport convolve(Distribution[] distributions, int latticePoints, double tailMass){
+		boolean integerValued = true;
+		double range = 0;
+		for(int i = 0; i < distributions.length; i++){
+			integerValued &= isIntegerValued(distributions[i]);
+			range += getUpperBound(distributions[i], tailMass) - getLowerBound(distributions[i], tailMass);
+		}
+		double step = integerValued || range <= 0 ? 1 : range/latticePoints;
+		
+		double[][] periodPmfs = new double[distributions.length][];
+		long offset = 0;
+		for(int i = 0; i < distributions.length; i++){
+			long low = Math.round(getLowerBound(distributions[i], tailMass)/step);
+			long high = Math.round(getUpperBound(distributions[i], tailMass)/step);
+			periodPmfs[i] = discretize(distributions[i], low, high, step);
+			offset += low;
+		}
+		double[] pmf = FFTConvolution.convolve(periodPmfs);
+		
+		int first = 0;
+		double lowerTail = pmf[0];
+		while(first < pmf.length - 1 && lowerTail + pmf[first + 1] < tailMass) lowerTail += pmf[++first];
+		int last = pmf.length - 1;
+		double upperTail = pmf[last];
+		while(last > first && upperTail + pmf[last - 1] < tailMass) upperTail += pmf[--last];
+		
+		double[] values = new double[last - first + 1];
+		double[] probabilities = new double[last - first + 1];
+		for(int k = first; k <= last; k++){
+			values[k - first] = (offset + k)*step;
+			probabilities[k - first] = pmf[k];
+		}
+		probabilities[0] += lowerTail - pmf[first];
+		probabilities[probabilities.length - 1] += upperTail - pmf[last];
+		return new WeightedSupport(values, probabilities);
+	}
+	
+	/*
+	 * EmpiricalDist does not sort its observations, and its cdf and inverseF assume they are sorted, 
+	 * so empirical distributions are read off the observations directly.
+	 */
+	
+	private static double getLowerBound(Distribution distribution, double tailMass){
+		if(distribution instanceof EmpiricalDist){
+			EmpiricalDist empDistribution = (EmpiricalDist) distribution;
+			double min = Double.POSITIVE_INFINITY;
+			for(int i = 0; i < empDistribution.getN(); i++) min = Math.min(min, empDistribution.getObs(i));
+			return min;
+		}else{
+			return distribution.inverseF(tailMass);
+		}
+	}
+	
+	private static double getUpperBound(Distribution distribution, double tailMass){
+		if(distribution instanceof EmpiricalDist){
+			EmpiricalDist empDistribution = (EmpiricalDist) distribution;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int i = 0; i < empDistribution.getN(); i++) max = Math.max(max, empDistribution.getObs(i));
+			return max;
+		}else{
+			return distribution.inverseF(1 - tailMass);
+		}
+	}
+	
+	/**
+	 * Assigns to lattice point k*step the probability of the cell ((k-0.5)*step, (k+0.5)*step]; the first 
+	 * and the last cell also collect the probability of the respective tail.
+	 */
+	private static double[] discretize(Distribution distribution, long low, long high, double step){
+		double[] pmf = new double[(int) (high - low + 1)];
+		if(distribution instanceof EmpiricalDist){
+			EmpiricalDist empDistribution = (EmpiricalDist) distribution;
+			for(int i = 0; i < empDistribution.getN(); i++){
+				pmf[(int) (Math.round(empDistribution.getObs(i)/step) - low)] += 1.0/empDistribution.getN();
+			}
+			return pmf;
+		}
+		double lastCdf = 0;
+		for(int k = 0; k < pmf.length - 1; k++){
+			double cdf = distribution.cdf((low + k + 0.5)*step);
+			pmf[k] = cdf - lastCdf;
+			lastCdf = cdf;
+		}
+		pmf[pmf.length - 1] = 1 - lastCdf;
+		return pmf;
+	}
+	
+	@Override
+	public double getPartialExpectation(double probabilityMass, int nbSamples){
+		if(this.cycleNormalDistribution != null){
+			if(probabilityMass <= 0) return 0;
+			double mu = this.cycleNormalDistribution.getMu();
+			if(probabilityMass >= 1) return mu;
+			double sigma = this.cycleNormalDistribution.getSigma();
+			return mu*probabilityMass - sigma*NormalDist.density01(NormalDist.inverseF01(probabilityMass));
+		}else{
+			return this.cycleSupport.getPartialExpectation(probabilityMass);
+		}
+	}
+	
+	@Override
+	public boolean hasSample(){
+		return false;
+	}
+	
+	@Override
+	public double getQuantile(double probabilityMass, int nbSamples){
+		if(this.cycleNormalDistribution != null){
+			return this.cycleNormalDistribution.inverseF(probabilityMass);
+		}else{
+			return this.cycleSupport.inverseF(probabilityMass);
+		}
+	}
+	
+	@Override
+	public double getCdf(double x, int nbSamples){
+		if(this.cycleNormalDistribution != null){
+			return this.cycleNormalDistribution.cdf(x);
+		}else{
+			return this.cycleSupport.cdf(x);
+		}
+	}
+	
+	/**
+	 * Returns the quantile sample of size {@code nbSamples}, whose i-th observation is the quantile of the 
+	 * cycle demand at (i+0.5)/nbSamples. No random numbers are drawn.
+	 */
+	@Override
+	public synchronized SortedSample getSortedSample(int nbSamples){
+		SortedSample sortedSample = this.sampleStore.get(nbSamples);
+		if(sortedSample == null){
+			double[] observations = new double[nbSamples];
+			for(int i = 0; i < nbSamples; i++){
+				observations[i] = this.getQuantile((i + 0.5)/nbSamples, nbSamples);
+			}
+			sortedSample = new SortedSample(observations);
+			this.sampleStore.put(nbSamples, sortedSample);
+		}
+		return sortedSample;
+	}
+	
+	/**
+	 * Returns the cycle demand distribution function: the support points and their cumulative probabilities, 
+	 * or the normal distribution function over mean +/- 4 standard deviations at steps of {@code precision}.
+	 */
+	@Override
+	public XYSeries getDistributionXYSeries(int nbSamples, double precision){
+		XYSeries series = new XYSeries("Distribution");
+		if(this.cycleNormalDistribution != null){
+			double mu = this.cycleNormalDistribution.getMu();
+			double sigma = this.cycleNormalDistribution.getSigma();
+			for(double x = mu - 4*sigma; x <= mu + 4*sigma; x += precision){
+				series.add(x, this.cycleNormalDistribution.cdf(x));
+			}
+		}else{
+			for(int i = 0; i < this.cycleSupport.getN(); i++){
+				series.add(this.cycleSupport.getValue(i), this.cycleSupport.cdf(this.cycleSupport.getValue(i)));
+			}
+		}
+		return series;
+	}
+	
+	@Override
+	public double getLossFunctionValue(double x, int nbSamples){
+		if(this.cycleNormalDistribution != null){
+			double mu = this.cycleNormalDistribution.getMu();
+			double sigma = this.cycleNormalDistribution.getSigma();
+			double z = (x - mu)/sigma;
+			return (x - mu)*NormalDist.cdf01(z) + sigma*NormalDist.density01(z);
+		}else{
+			return this.cycleSupport.getLossFunctionValue(x);
+		}
+	}
+	
+	@Override
+	public double[] getLossFunctionValues(double[] xs, int nbSamples){
+		if(this.cycleNormalDistribution != null){
+			double[] values = new double[xs.length];
+			for(int i = 0; i < xs.length; i++){
+				values[i] = this.getLossFunctionValue(xs[i], nbSamples);
+			}
+			return values;
+		}else{
+			return this.cycleSupport.getLossFunctionValues(xs);
+		}
+	}
+	
+	@Override
+	public double getMaxApproximationError(double[] probabilityMasses, int nbSamples, double[] conditionalExpectations, double[] approximationErrors){
+		double cumulativeMass = 0;
+		double partialExpectation = 0;
+		double maxApproximationError = 0;
+		for(int i = 0; i < probabilityMasses.length; i++){
+			double nextCumulativeMass = Math.min(1, cumulativeMass + probabilityMasses[i]);
+			double nextPartialExpectation = this.getPartialExpectation(nextCumulativeMass, nbSamples);
+			double x = (nextPartialExpectation - partialExpectation)/probabilityMasses[i];
+			double approximationError = this.getLossFunctionValue(x, nbSamples) - (x*cumulativeMass - partialExpectation);
+			if(conditionalExpectations != null) conditionalExpectations[i] = x;
+			if(approximationErrors != null) approximationErrors[i] = approximationError;
+			maxApproximationError = Math.max(maxApproximationError, approximationError);
+			cumulativeMass = nextCumulativeMass;
+			partialExpectation = nextPartialExpectation;
+		}
+		return maxApproximationError;
+	}
+	
+	@Override
+	public double getSegmentApproximationError(double fromMass, double toMass, int nbSamples){
+		double partialExpectation = this.getPartialExpectation(fromMass, nbSamples);
+		double x = (this.getPartialExpectation(toMass, nbSamples) - partialExpectation)/(toMass - fromMass);
+		return this.getLossFunctionValue(x, nbSamples) - (x*fromMass - partialExpectation);
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lossfunction;
+
+import java.util.Arrays;
+
+/**
+ * Convolution of probability mass functions on a common lattice by fast Fourier transform. All 
+ * mass functions are transformed once, multiplied pointwise and transformed back, so that the 
+ * convolution of k mass functions of total length L costs O(k L log L).
+ */
+public class FFTConvolution {
+	
+	/**
+	 * Returns the convolution of the given probability mass functions. Rounding noise below zero is 
+	 * truncated.
+	 * 
+	 * @param pmfs the probability mass functions, each indexed from its own lowest lattice point
+	 * @return the probability mass function of the sum, indexed from the sum of the lowest lattice points
+	 */
+	public static double[] convolve(double[][] pmfs){
+		int length = 1;
+		for(int i = 0; i < pmfs.length; i++){
+			length += pmfs[i].length - 1;
+		}
+		int size = 1;
+		while(size < length) size <<= 1;
+		
+		double[] re = new double[size];
+		double[] im = new double[size];
+		Arrays.fill(re, 1);
+		double[] periodRe = new double[size];
+		double[] periodIm = new double[size];
+		for(int i = 0; i < pmfs.length; i++){
+			Arrays.fill(periodRe, 0);
+			Arrays.fill(periodIm, 0);
+			System.arraycopy(pmfs[i], 0, periodRe, 0, pmfs[i].length);
+			transform(periodRe, periodIm, false);
+			for(int k = 0; k < size; k++){
+				double r = re[k]*periodRe[k] - im[k]*periodIm[k];
+				im[k] = re[k]*periodIm[k] + im[k]*periodRe[k];
+				re[k] = r;
+			}
+		}
+		transform(re, im, true);
+		
+		double[] pmf = new double[length];
+		for(int k = 0; k < length; k++){
+			pmf[k] = Math.max(0, re[k]/size);
+		}
+		return pmf;
+	}
+	
+	/**
+	 * In-place iterative radix-2 transform; the inverse transform is not scaled.
+	 */
+	static void transform(double[] re, double[] im, boolean inverse){
+		int n = re.length;
+		for(int i = 1, j = 0; i < n; i++){
+			int bit = n >> 1;
+			for(; (j & bit) != 0; bit >>= 1) j ^= bit;
+			j ^= bit;
+			if(i < j){
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		double[] cos = new double[n/2];
+		double[] sin = new double[n/2];
+		for(int k = 0; k < n/2; k++){
+			cos[k] = Math.cos(2*Math.PI*k/n);
+			sin[k] = (inverse ? 1 : -1)*Math.sin(2*Math.PI*k/n);
+		}
+		for(int length = 2; length <= n; length <<= 1){
+			int half = length/2;
+			int stride = n/length;
+			for(int i = 0; i < n; i += length){
+				for(int k = 0; k < half; k++){
+					int a = i + k;
+					int b = a + half;
+					double wRe = cos[k*stride];
+					double wIm = sin[k*stride];
+					double vRe = re[b]*wRe - im[b]*wIm;
+					double vIm = re[b]*wIm + im[b]*wRe;
+					re[b] = re[a] - vRe;
+					im[b] = im[a] - vIm;
+					re[a] += vRe;
+					im[a] += vIm;
+				}
+			}
+		}
+	}
+}
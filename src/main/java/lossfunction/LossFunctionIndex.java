@@ -0,0 +1,172 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lossfunction;
+
+/**
+ * Index over the sorted observations of a sample that stores their cumulative sums, so that the 
+ * empirical complementary first order loss function 
+ * 
+ * CL(x) = (count(obs <= x)*x - sum(obs <= x))/N
+ * 
+ * is obtained by binary search in O(log N) rather than by a pass over the whole sample.
+ */
+public class LossFunctionIndex extends SortedSample {
+	/**
+	 * A cumulative mass within this fraction of an observation from a multiple of 1/N is treated as 
+	 * that multiple, so that masses built by adding up 1/N steps hit observation boundaries exactly.
+	 */
+	static final double SNAP_TOLERANCE = 1e-6;
+	
+	double[] prefixSums;
+	
+	/**
+	 * @param sortedObservations the observations, sorted in ascending order
+	 */
+	public LossFunctionIndex(double[] sortedObservations){
+		super(sortedObservations);
+		this.prefixSums = new double[sortedObservations.length + 1];
+		for(int i = 0; i < sortedObservations.length; i++){
+			this.prefixSums[i+1] = this.prefixSums[i] + sortedObservations[i];
+		}
+	}
+	
+	/**
+	 * Builds the index over {@code sample}, sharing its observations.
+	 */
+	public LossFunctionIndex(SortedSample sample){
+		this(sample.observations);
+	}
+	
+	public double getLossFunctionValue(double x){
+		int k = this.count(x);
+		return (k*x - this.prefixSums[k])/this.observations.length;
+	}
+	
+	/**
+	 * Evaluates the loss function over a grid with a single merge sweep over the grid and the sorted 
+	 * observations, in O(N + M) for a grid of M points.
+	 * 
+	 * @param xs the grid, sorted in ascending order
+	 * @return the loss function value at each grid point
+	 */
+	public double[] getLossFunctionValues(double[] xs){
+		double[] values = new double[xs.length];
+		int k = 0;
+		for(int i = 0; i < xs.length; i++){
+			while(k < this.observations.length && this.observations[k] <= xs[i]) k++;
+			values[i] = (k*xs[i] - this.prefixSums[k])/this.observations.length;
+		}
+		return values;
+	}
+	
+	/**
+	 * Returns the partial expectation of the lowest {@code probabilityMass} of the sample, that is the 
+	 * integral of the empirical quantile function from 0 to {@code probabilityMass}. The observation 
+	 * that straddles the boundary contributes in proportion to the share of its mass 1/N that falls below it.
+	 */
+	public double getPartialExpectation(double probabilityMass){
+		int n = this.observations.length;
+		if(probabilityMass <= 0) return 0;
+		if(probabilityMass >= 1) return this.prefixSums[n]/n;
+		double position = probabilityMass*n;
+		long nearest = Math.round(position);
+		if(Math.abs(position - nearest) < SNAP_TOLERANCE) return this.prefixSums[(int) nearest]/n;
+		int k = Math.min((int) position, n - 1);
+		return (this.prefixSums[k] + (position - k)*this.observations[k])/n;
+	}
+	
+	/**
+	 * Returns the means of the {@code size} blocks of equal probability mass 1/size, read off the partial 
+	 * expectation. Block t spans the cumulative masses t/size to (t+1)/size, so an observation that straddles 
+	 * two blocks is shared between them. The means are sorted, and they form a coarsening of the sample.
+	 */
+	public double[] getBlockMeans(int size){
+		double[] means = new double[size];
+		double partialExpectation = 0;
+		for(int t = 0; t < size; t++){
+			double nextPartialExpectation = this.getPartialExpectation(((double) (t + 1))/size);
+			means[t] = (nextPartialExpectation - partialExpectation)*size;
+			partialExpectation = nextPartialExpectation;
+		}
+		return means;
+	}
+	
+	/**
+	 * Returns the empirical quantile at {@code probabilityMass}, the observation of rank floor(probabilityMass*N), 
+	 * which is the right derivative of the partial expectation.
+	 */
+	public double getQuantile(double probabilityMass){
+		int n = this.observations.length;
+		double position = probabilityMass*n;
+		long nearest = Math.round(position);
+		long k = Math.abs(position - nearest) < SNAP_TOLERANCE ? nearest : (long) Math.floor(position);
+		return this.observations[(int) Math.max(0, Math.min(k, n - 1))];
+	}
+	
+	/**
+	 * Returns the approximation error at the breakpoint of the partition that spans cumulative masses 
+	 * {@code fromMass} to {@code toMass}. It does not depend on the other partitions.
+	 */
+	public double getApproximationError(double fromMass, double toMass){
+		double partialExpectation = this.getPartialExpectation(fromMass);
+		double x = (this.getPartialExpectation(toMass) - partialExpectation)/(toMass - fromMass);
+		return this.getLossFunctionValue(x) - (x*fromMass - partialExpectation);
+	}
+	
+	/**
+	 * Fused evaluation of a piecewise linearisation. For partition i, spanning cumulative masses c(i-1) 
+	 * to c(i), the conditional expectation is x(i) = (G(c(i)) - G(c(i-1)))/p(i), where G is the partial 
+	 * expectation, and the piecewise lower bound at x(i) is x(i)*c(i-1) - G(c(i-1)). The approximation 
+	 * error at breakpoint i is therefore CL(x(i)) - x(i)*c(i-1) + G(c(i-1)). The breakpoints are nondecreasing, 
+	 * so each loss function lookup resumes the search from the previous one. Nothing is allocated.
+	 * 
+	 * @param probabilityMasses the probability masses
+	 * @param conditionalExpectations receives the conditional expectations, unless {@code null}
+	 * @param approximationErrors receives the approximation error at each breakpoint, unless {@code null}
+	 * @return the maximum approximation error
+	 */
+	public double getMaxApproximationError(double[] probabilityMasses, double[] conditionalExpectations, double[] approximationErrors){
+		int n = this.observations.length;
+		double cumulativeMass = 0;
+		double partialExpectation = 0;
+		double maxApproximationError = 0;
+		int k = 0;
+		for(int i = 0; i < probabilityMasses.length; i++){
+			double nextCumulativeMass = Math.min(1, cumulativeMass + probabilityMasses[i]);
+			double nextPartialExpectation = this.getPartialExpectation(nextCumulativeMass);
+			double x = (nextPartialExpectation - partialExpectation)/probabilityMasses[i];
+			k = this.count(x, k);
+			double approximationError = (k*x - this.prefixSums[k])/n - (x*cumulativeMass - partialExpectation);
+			if(conditionalExpectations != null) conditionalExpectations[i] = x;
+			if(approximationErrors != null) approximationErrors[i] = approximationError;
+			maxApproximationError = Math.max(maxApproximationError, approximationError);
+			cumulativeMass = nextCumulativeMass;
+			partialExpectation = nextPartialExpectation;
+		}
+		return maxApproximationError;
+	}
+}
@@ -51,23 +51,44 @@ ComplementaryFirstOrderLossFunction {
 	public PiecewiseComplementaryFirstOrderLossFunction(Distribution[] distributions, long[] seed){
 		super(distributions, seed);
 	}
+	
+	protected PiecewiseComplementaryFirstOrderLossFunction(Distribution[] distributions){
+		super(distributions);
+	}
+	
+	/**
+	 * Returns a loss function whose sample of size {@code size} holds the block means of the sample of size 
+	 * {@code nbSamples} of this one (see {@link LossFunctionIndex#getBlockMeans}), so that it coarsens that 
+	 * sample rather than drawing a new one; it holds no other sample. A loss function without a sample is 
+	 * returned as it is.
+	 */
+	public PiecewiseComplementaryFirstOrderLossFunction getCoarsening(int nbSamples, int size){
+		if(!this.hasSample()) return this;
+		PiecewiseComplementaryFirstOrderLossFunction coarsening = new PiecewiseComplementaryFirstOrderLossFunction(this.distributions);
+		coarsening.setSample(this.getLossFunctionIndex(nbSamples).getBlockMeans(size));
+		return coarsening;
+	}
 
+	/**
+	 * Returns the conditional expectation of the demand within each partition. Partition i covers the 
+	 * cumulative probability range between the sum of the first i masses and the sum of the first i+1 
+	 * masses, and its conditional expectation is the difference of the partial expectations at the two 
+	 * ends divided by its mass. Each call costs O(P) once the sample index exists.
+	 * 
+	 * @param probabilityMasses the probability masses
+	 * @param nbSamples the number of samples
+	 * @return the conditional expectations
+	 */
 	public double[] getConditionalExpectations(double[] probabilityMasses, int nbSamples){
 		double[] conditionalExpectations = new double[probabilityMasses.length];
-		EmpiricalDist empDistribution = this.getEmpiricalDistribution(nbSamples);
-		double probabilityMass = 0;
-		int conditionalExpectationIndex = 0;
-		for(int i = 0; i < empDistribution.getN(); i++){
-			if(probabilityMass < 1 && probabilityMass < probabilityMasses[conditionalExpectationIndex]){
-				conditionalExpectations[conditionalExpectationIndex] += empDistribution.getObs(i)/empDistribution.getN();
-				probabilityMass += 1.0/empDistribution.getN();
-			}else{
-				conditionalExpectations[conditionalExpectationIndex] /= probabilityMasses[conditionalExpectationIndex];
-				probabilityMass = 0;
-				conditionalExpectationIndex++;
-			}
+		double cumulativeMass = 0;
+		double partialExpectation = 0;
+		for(int i = 0; i < probabilityMasses.length; i++){
+			cumulativeMass = Math.min(1, cumulativeMass + probabilityMasses[i]);
+			double nextPartialExpectation = this.getPartialExpectation(cumulativeMass, nbSamples);
+			conditionalExpectations[i] = (nextPartialExpectation - partialExpectation)/probabilityMasses[i];
+			partialExpectation = nextPartialExpectation;
 		}
-		conditionalExpectations[conditionalExpectationIndex] /= probabilityMasses[conditionalExpectationIndex];
 		return conditionalExpectations;
 	}
 
@@ -78,57 +99,107 @@ ComplementaryFirstOrderLossFunction {
 			double max, 
 			double minYValue,
 			double precision){
+		return this.getLossFunctionXYSeriesForSegment(segmentIndex, new PiecewiseLinearModel(probabilityMasses, conditionalExpectations), min, max, minYValue, precision);
+	}
+	
+	public XYSeries getLossFunctionXYSeriesForSegment(int segmentIndex, 
+			PiecewiseLinearModel model, 
+			double min, 
+			double max, 
+			double minYValue,
+			double precision){
 		XYSeries series = new XYSeries("Piecewise complementary loss function");
 		for(double x = min; x <= max; x+= precision){
-			double value = getPiecewiseLossFunctionValue(segmentIndex, x, probabilityMasses, conditionalExpectations);
+			double value = getPiecewiseLossFunctionValue(segmentIndex, x, model);
 			if(value >= minYValue) series.add(x, value);
 		}
 		return series;
 	}
 
 	public double getPiecewiseLossFunctionValue(int segmentIndex, double x, double[] probabilityMasses, double[] conditionalExpectations){
-		double value = 0;
-		for(int i = 1; i <= segmentIndex; i++){
-			value += (x-conditionalExpectations[i-1])*probabilityMasses[i-1];
-		}
-		return value;
+		return this.getPiecewiseLossFunctionValue(segmentIndex, x, new PiecewiseLinearModel(probabilityMasses, conditionalExpectations));
+	}
+	
+	public double getPiecewiseLossFunctionValue(int segmentIndex, double x, PiecewiseLinearModel model){
+		return model.getSlope(segmentIndex)*x + model.getIntercept(segmentIndex);
 	}
 	
 	public XYSeries getPiecewiseErrorXYSeries(double min, double max, int nbSamples, double[] probabilityMasses, double[] conditionalExpectations, double precision){
+		return this.getPiecewiseErrorXYSeries(min, max, nbSamples, new PiecewiseLinearModel(probabilityMasses, conditionalExpectations), precision);
+	}
+	
+	public XYSeries getPiecewiseErrorXYSeries(double min, double max, int nbSamples, PiecewiseLinearModel model, double precision){
 		XYSeries series = new XYSeries("Piecewise complementary loss function error");
-		for(double x = min; x <= max; x+= precision){
-			series.add(x, getPiecewiseErrorValue(x, nbSamples, probabilityMasses, conditionalExpectations));
+		double[] xs = getGrid(min, max, precision);
+		double[] values = this.getPiecewiseErrorValues(xs, nbSamples, model);
+		for(int i = 0; i < xs.length; i++){
+			series.add(xs[i], values[i]);
 		}
 		return series;
 	}
 	
-	public double getPiecewiseErrorValue(double x, int nbSamples, double[] probabilityMasses, double[] conditionalExpectations){
-		double lossFunctionValue = this.getLossFunctionValue(x, nbSamples);
-
-		double maxValue = 0;
-		for(int j = 0; j <= probabilityMasses.length; j++){
-			double value = 0;
-			for(int i = 1; i <= j; i++){
-				value += (x-conditionalExpectations[i-1])*probabilityMasses[i-1];
-			}
-			maxValue = Math.max(maxValue, value);
+	/**
+	 * Evaluates the piecewise approximation error over a sorted grid: the loss function by a single merge 
+	 * sweep over the grid and the sorted sample, the lower bound by a compiled {@link PiecewiseLinearModel}. 
+	 * The conditional expectations must be nondecreasing, as those returned by 
+	 * {@link #getConditionalExpectations(double[], int)} are.
+	 * 
+	 * @param xs the grid, sorted in ascending order
+	 * @param nbSamples the number of samples
+	 * @param probabilityMasses the probability masses
+	 * @param conditionalExpectations the conditional expectations
+	 * @return the approximation error at each grid point
+	 */
+	public double[] getPiecewiseErrorValues(double[] xs, int nbSamples, double[] probabilityMasses, double[] conditionalExpectations){
+		return this.getPiecewiseErrorValues(xs, nbSamples, new PiecewiseLinearModel(probabilityMasses, conditionalExpectations));
+	}
+	
+	/**
+	 * Evaluates the piecewise approximation error over a sorted grid against a model compiled by 
+	 * {@link #getPiecewiseLinearModel(double[], int)}.
+	 */
+	public double[] getPiecewiseErrorValues(double[] xs, int nbSamples, PiecewiseLinearModel model){
+		double[] values = this.getLossFunctionValues(xs, nbSamples);
+		double[] lowerBound = new double[xs.length];
+		model.evaluate(xs, lowerBound);
+		for(int i = 0; i < xs.length; i++){
+			values[i] -= lowerBound[i];
 		}
-		
-		return lossFunctionValue-maxValue;
+		return values;
+	}
+	
+	public double getPiecewiseErrorValue(double x, int nbSamples, double[] probabilityMasses, double[] conditionalExpectations){
+		return this.getPiecewiseErrorValue(x, nbSamples, new PiecewiseLinearModel(probabilityMasses, conditionalExpectations));
+	}
+	
+	public double getPiecewiseErrorValue(double x, int nbSamples, PiecewiseLinearModel model){
+		return this.getLossFunctionValue(x, nbSamples) - model.evaluate(x);
+	}
+	
+	/**
+	 * Compiles the piecewise linear lower bound for the given probability masses into an immutable model 
+	 * that can be evaluated repeatedly, and from any thread, in O(log P) per point.
+	 * 
+	 * @param probabilityMasses the probability masses
+	 * @param nbSamples the number of samples
+	 * @return the piecewise linear model
+	 */
+	public PiecewiseLinearModel getPiecewiseLinearModel(double[] probabilityMasses, int nbSamples){
+		return new PiecewiseLinearModel(probabilityMasses, this.getConditionalExpectations(probabilityMasses, nbSamples));
 	}
 
 	public void plotPiecewiseLossFunction(double min, double max, double minYValue, double[] probabilityMasses, int nbSamples, double precision, boolean saveToDisk){
 		int segments = probabilityMasses.length + 1;
-		double[] conditionalExpectations = this.getConditionalExpectations(probabilityMasses, nbSamples);
+		PiecewiseLinearModel model = this.getPiecewiseLinearModel(probabilityMasses, nbSamples);
 
 		XYSeriesCollection xyDataset = new XYSeriesCollection();
 
 		xyDataset.addSeries(this.getLossFunctionXYSeries(min, max, nbSamples, precision));
 
 		for(int i = 0; i < segments; i++)
-			xyDataset.addSeries(this.getLossFunctionXYSeriesForSegment(i, probabilityMasses, conditionalExpectations, min, max, minYValue, precision));
+			xyDataset.addSeries(this.getLossFunctionXYSeriesForSegment(i, model, min, max, minYValue, precision));
 
-		xyDataset.addSeries(this.getPiecewiseErrorXYSeries(min, max, nbSamples, probabilityMasses, conditionalExpectations, precision));
+		xyDataset.addSeries(this.getPiecewiseErrorXYSeries(min, max, nbSamples, model, precision));
 		
 		JFreeChart chart = ChartFactory.createXYLineChart("Empirical complementary loss function", "x", "CL(x)",
 				xyDataset, PlotOrientation.VERTICAL, false, true, false);
@@ -156,25 +227,39 @@ ComplementaryFirstOrderLossFunction {
 	}
 
 	public double[] getApproximationErrors(double[] probabilityMasses, int nbSamples){
-		double[] conditionalExpectations = this.getConditionalExpectations(probabilityMasses, nbSamples);
-		double[] approximationErrors = new double[conditionalExpectations.length];
-
-		for(int i = 0; i < probabilityMasses.length; i++){
-			approximationErrors[i] = getLossFunctionValue(conditionalExpectations[i], nbSamples)-
-					getPiecewiseLossFunctionValue(i, conditionalExpectations[i], probabilityMasses, conditionalExpectations);
-		}
-
+		double[] approximationErrors = new double[probabilityMasses.length];
+		this.getMaxApproximationError(probabilityMasses, nbSamples, null, approximationErrors);
 		return approximationErrors;
 	}
 
 	public double getMaxApproximationError(double[] probabilityMasses, int nbSamples){
-		double[] approximationErrors = this.getApproximationErrors(probabilityMasses, nbSamples);
-		double maxApproximationError = 0;
-
-		for(int i = 0; i < probabilityMasses.length; i++){
-			maxApproximationError = Math.max(maxApproximationError, approximationErrors[i]);
-		}
-
-		return maxApproximationError;
+		return this.getMaxApproximationError(probabilityMasses, nbSamples, null, null);
+	}
+	
+	/**
+	 * Computes the conditional expectations, the approximation error at each breakpoint and the maximum 
+	 * approximation error in a single pass that allocates nothing.
+	 * 
+	 * @param probabilityMasses the probability masses
+	 * @param nbSamples the number of samples
+	 * @param conditionalExpectations receives the conditional expectations, unless {@code null}
+	 * @param approximationErrors receives the approximation error at each breakpoint, unless {@code null}
+	 * @return the maximum approximation error
+	 */
+	public double getMaxApproximationError(double[] probabilityMasses, int nbSamples, double[] conditionalExpectations, double[] approximationErrors){
+		return this.getLossFunctionIndex(nbSamples).getMaxApproximationError(probabilityMasses, conditionalExpectations, approximationErrors);
+	}
+	
+	/**
+	 * Returns the approximation error at the breakpoint of the partition that spans cumulative masses 
+	 * {@code fromMass} to {@code toMass}. It does not depend on the other partitions.
+	 * 
+	 * @param fromMass the cumulative mass at which the partition starts
+	 * @param toMass the cumulative mass at which the partition ends
+	 * @param nbSamples the number of samples
+	 * @return the approximation error
+	 */
+	public double getSegmentApproximationError(double fromMass, double toMass, int nbSamples){
+		return this.getLossFunctionIndex(nbSamples).getApproximationError(fromMass, toMass);
 	}
 }
@@ -0,0 +1,107 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lossfunction;
+
+import java.util.Arrays;
+
+/**
+ * Immutable piecewise linear lower bound of a complementary first order loss function. Segment 0 is 
+ * the zero function and segment j adds (x - E[X|i])p(i) for every partition i < j, so segment j has 
+ * slope p(0)+...+p(j-1) and intercept -(p(0)E[X|0]+...+p(j-1)E[X|j-1]). Since the conditional 
+ * expectations are nondecreasing, segment j is the maximum of the segments between breakpoints 
+ * E[X|j-1] and E[X|j], and a point is evaluated by binary search over the breakpoints in O(log P). 
+ * Instances can be shared across threads.
+ */
+public final class PiecewiseLinearModel {
+	private final double[] breakpoints;
+	private final double[] slopes;
+	private final double[] intercepts;
+	
+	/**
+	 * @param probabilityMasses the probability masses
+	 * @param conditionalExpectations the conditional expectations, in nondecreasing order
+	 */
+	public PiecewiseLinearModel(double[] probabilityMasses, double[] conditionalExpectations){
+		this.breakpoints = Arrays.copyOf(conditionalExpectations, conditionalExpectations.length);
+		this.slopes = new double[probabilityMasses.length + 1];
+		this.intercepts = new double[probabilityMasses.length + 1];
+		for(int j = 1; j <= probabilityMasses.length; j++){
+			this.slopes[j] = this.slopes[j-1] + probabilityMasses[j-1];
+			this.intercepts[j] = this.intercepts[j-1] - probabilityMasses[j-1]*conditionalExpectations[j-1];
+		}
+	}
+	
+	public int getSegments(){
+		return this.slopes.length;
+	}
+	
+	public double getBreakpoint(int i){
+		return this.breakpoints[i];
+	}
+	
+	public double getSlope(int segmentIndex){
+		return this.slopes[segmentIndex];
+	}
+	
+	public double getIntercept(int segmentIndex){
+		return this.intercepts[segmentIndex];
+	}
+	
+	/**
+	 * Returns the index of the segment that attains the lower bound at {@code x}, that is the number of 
+	 * breakpoints strictly below {@code x}.
+	 */
+	public int getSegmentIndex(double x){
+		int low = 0;
+		int high = this.breakpoints.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(this.breakpoints[mid] < x) 
+				low = mid + 1;
+			else 
+				high = mid;
+		}
+		return low;
+	}
+	
+	public double evaluate(double x){
+		int j = this.getSegmentIndex(x);
+		return this.slopes[j]*x + this.intercepts[j];
+	}
+	
+	/**
+	 * Evaluates the lower bound at every point of {@code xs}, which need not be sorted.
+	 * 
+	 * @param xs the points
+	 * @param values receives the lower bound at each point
+	 */
+	public void evaluate(double[] xs, double[] values){
+		for(int i = 0; i < xs.length; i++){
+			values[i] = this.evaluate(xs[i]);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lossfunction;
+
+import umontreal.ssj.probdist.EmpiricalDist;
+
+/**
+ * Lightweight view of a sorted sample. Unlike {@link EmpiricalDist}, it wraps the array it is given 
+ * instead of copying it; the array must be sorted in ascending order and must not be modified afterwards.
+ */
+public class SortedSample {
+	double[] observations;
+	
+	/**
+	 * @param sortedObservations the observations, sorted in ascending order
+	 */
+	public SortedSample(double[] sortedObservations){
+		this.observations = sortedObservations;
+	}
+	
+	public int getN(){
+		return this.observations.length;
+	}
+	
+	public double getObs(int i){
+		return this.observations[i];
+	}
+	
+	/**
+	 * Returns the number of observations that are less than or equal to {@code x}.
+	 */
+	public int count(double x){
+		return this.count(x, 0);
+	}
+	
+	/**
+	 * Returns the number of observations that are less than or equal to {@code x}, searching only above 
+	 * {@code from} when the first {@code from} observations are known not to exceed {@code x}.
+	 */
+	public int count(double x, int from){
+		if(from > 0 && this.observations[from - 1] > x) from = 0;
+		int low = from;
+		int high = this.observations.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(this.observations[mid] <= x) 
+				low = mid + 1;
+			else 
+				high = mid;
+		}
+		return low;
+	}
+	
+	public double cdf(double x){
+		return ((double) this.count(x))/this.observations.length;
+	}
+	
+	/**
+	 * Returns a copy of this sample as an {@link EmpiricalDist}.
+	 */
+	public EmpiricalDist toEmpiricalDist(){
+		return new EmpiricalDist(this.observations);
+	}
+}
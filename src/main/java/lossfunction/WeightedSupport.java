@@ -0,0 +1,146 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package lossfunction;
+
+/**
+ * Discrete distribution on a finite, sorted support. The cumulative probabilities and the cumulative 
+ * partial expectations are stored, so that the complementary first order loss function and the 
+ * partial expectation over any quantile range are obtained by binary search.
+ */
+public class WeightedSupport {
+	double[] values;
+	double[] cumulativeProbabilities;
+	double[] cumulativeExpectations;
+	
+	/**
+	 * @param values the support, sorted in ascending order
+	 * @param probabilities the probability of each value; they are normalised so that they sum to one
+	 */
+	public WeightedSupport(double[] values, double[] probabilities){
+		this.values = values;
+		this.cumulativeProbabilities = new double[values.length + 1];
+		this.cumulativeExpectations = new double[values.length + 1];
+		double totalProbability = 0;
+		for(int i = 0; i < probabilities.length; i++){
+			totalProbability += probabilities[i];
+		}
+		for(int i = 0; i < values.length; i++){
+			double probability = probabilities[i]/totalProbability;
+			this.cumulativeProbabilities[i+1] = this.cumulativeProbabilities[i] + probability;
+			this.cumulativeExpectations[i+1] = this.cumulativeExpectations[i] + probability*values[i];
+		}
+	}
+	
+	public int getN(){
+		return this.values.length;
+	}
+	
+	public double getValue(int i){
+		return this.values[i];
+	}
+	
+	public double prob(int i){
+		return this.cumulativeProbabilities[i+1] - this.cumulativeProbabilities[i];
+	}
+	
+	/**
+	 * Returns the number of support points that are less than or equal to {@code x}.
+	 */
+	public int count(double x){
+		int low = 0;
+		int high = this.values.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(this.values[mid] <= x) 
+				low = mid + 1;
+			else 
+				high = mid;
+		}
+		return low;
+	}
+	
+	public double cdf(double x){
+		return this.cumulativeProbabilities[this.count(x)];
+	}
+	
+	/**
+	 * Returns the smallest support point whose cumulative probability exceeds {@code probabilityMass}.
+	 */
+	public double inverseF(double probabilityMass){
+		int low = 0;
+		int high = this.values.length - 1;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(this.cumulativeProbabilities[mid+1] > probabilityMass) 
+				high = mid;
+			else 
+				low = mid + 1;
+		}
+		return this.values[low];
+	}
+	
+	public double getLossFunctionValue(double x){
+		int k = this.count(x);
+		return x*this.cumulativeProbabilities[k] - this.cumulativeExpectations[k];
+	}
+	
+	/**
+	 * Evaluates the loss function over a grid with a single merge sweep over the grid and the support.
+	 * 
+	 * @param xs the grid, sorted in ascending order
+	 * @return the loss function value at each grid point
+	 */
+	public double[] getLossFunctionValues(double[] xs){
+		double[] lossFunctionValues = new double[xs.length];
+		int k = 0;
+		for(int i = 0; i < xs.length; i++){
+			while(k < this.values.length && this.values[k] <= xs[i]) k++;
+			lossFunctionValues[i] = xs[i]*this.cumulativeProbabilities[k] - this.cumulativeExpectations[k];
+		}
+		return lossFunctionValues;
+	}
+	
+	/**
+	 * Returns the partial expectation of the lowest {@code probabilityMass} of the distribution, that is the 
+	 * integral of the quantile function from 0 to {@code probabilityMass}. A support point that straddles 
+	 * the boundary contributes in proportion to the share of its probability that falls below it.
+	 */
+	public double getPartialExpectation(double probabilityMass){
+		if(probabilityMass <= 0) return 0;
+		if(probabilityMass >= this.cumulativeProbabilities[this.values.length]) return this.cumulativeExpectations[this.values.length];
+		int low = 0;
+		int high = this.values.length;
+		while(low < high){
+			int mid = (low + high + 1) >>> 1;
+			if(this.cumulativeProbabilities[mid] <= probabilityMass) 
+				low = mid;
+			else 
+				high = mid - 1;
+		}
+		return this.cumulativeExpectations[low] + (probabilityMass - this.cumulativeProbabilities[low])*this.values[low];
+	}
+}
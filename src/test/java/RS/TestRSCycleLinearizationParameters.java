@@ -0,0 +1,71 @@
+/**
+ * pwlf: Piecewise Linearization of Arbitrary First Order Loss Functions
+ * 
+ * MIT License
+ * 
+ * Copyright (c) 2020 Roberto Rossi
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package RS;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import umontreal.ssj.probdist.Distribution;
+import umontreal.ssj.probdist.NormalDist;
+import umontreal.ssj.probdist.PoissonDist;
+
+public class TestRSCycleLinearizationParameters {
+   
+   public static void main(String[] args){
+      testParallelConstruction();
+   }
+   
+   public static void testParallelConstruction(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 10000;
+      int population = 100;
+      int partitions = 4;
+      Distribution[] demand = new Distribution[12];
+      for(int t = 0; t < demand.length; t++){
+         demand[t] = t % 2 == 0 ? new PoissonDist(20 + t) : new NormalDist(30, 5 + t);
+      }
+      
+      RSCycleLinearizationParameters sequential = new RSCycleLinearizationParameters(demand, seed, nbSamples, population, partitions);
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      RSCycleLinearizationParameters parallel;
+      try {
+         parallel = new RSCycleLinearizationParameters(demand, seed, nbSamples, population, partitions, executor);
+      } finally {
+         executor.shutdown();
+      }
+      
+      boolean same = Arrays.equals(sequential.getProbabilityMasses(), parallel.getProbabilityMasses());
+      for(int i = 0; i < demand.length; i++){
+         for(int j = i; j < demand.length; j++){
+            same &= Arrays.equals(sequential.getConditionalExpectation(i, j), parallel.getConditionalExpectation(i, j));
+            same &= sequential.getMaximumApproximationError(i, j) == parallel.getMaximumApproximationError(i, j);
+         }
+      }
+      System.out.println("Same parameters sequentially and on 4 threads: "+same);
+   }
+}
@@ -28,12 +28,16 @@ package localsearch;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import lossfunction.PiecewiseComplementaryFirstOrderLossFunction;
 import umontreal.ssj.probdist.Distribution;
 import umontreal.ssj.probdist.EmpiricalDist;
 import umontreal.ssj.probdist.NormalDist;
+import umontreal.ssj.randvar.UniformIntGen;
 import umontreal.ssj.rng.MRG32k3aL;
 import umontreal.ssj.stat.Tally;
 
@@ -46,6 +50,15 @@ public class TestLocalSearch {
       //testLocalOptima();
       //exhaustiveEnumeration();
       //testMonteCarlo(100);
+      testGridEnumeration();
+      testOptimalPartitioning();
+      testEqualErrorBisection();
+      testProjectedGradientDescent();
+      testIncrementalEvaluation();
+      testBoundaryCache();
+      testCheckpointResume();
+      testRacing();
+      testParallelRandomSampling();
    }
    
    public static void testUniformPartitioning(){
@@ -839,6 +852,276 @@ public class TestLocalSearch {
       }
    }
    
+   public static void testGridEnumeration(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 60;
+      int partitions = 3;
+      
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(pwcfolfs, nbSamples);
+      
+      double[] bestMass = bruteForce(evaluator);
+      double[] gridMass = LocalSearch.gridEnumeration(evaluator, partitions, nbSamples);
+      System.out.println("Brute force: "+evaluator.getMaxApproximationError(bestMass)+" GE: "+evaluator.getMaxApproximationError(gridMass));
+      System.out.println("Same masses: "+Arrays.equals(bestMass, gridMass));
+   }
+   
+   public static void testOptimalPartitioning(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 60;
+      int partitions = 3;
+      
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(pwcfolfs, nbSamples);
+      
+      double[] bestMass = bruteForce(evaluator);
+      double[] optimalMass = LocalSearch.optimalPartitioning(evaluator, partitions);
+      System.out.println("Brute force: "+evaluator.getMaxApproximationError(bestMass)+" DP: "+evaluator.getMaxApproximationError(optimalMass));
+   }
+   
+   public static void testEqualErrorBisection(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 2000;
+      int partitions = 5;
+      double tolerance = 1e-6;
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(getLossFunctions(seed), nbSamples);
+      
+      double optimalApproxError = evaluator.getMaxApproximationError(LocalSearch.optimalPartitioning(evaluator, partitions));
+      double bisectionApproxError = evaluator.getMaxApproximationError(LocalSearch.equalErrorBisection(evaluator, partitions, tolerance));
+      System.out.println("DP: "+optimalApproxError+" EE: "+bisectionApproxError);
+      System.out.println("EE within tolerance of DP: "+
+            (bisectionApproxError >= optimalApproxError && bisectionApproxError - optimalApproxError <= tolerance*bisectionApproxError));
+      
+      boolean rejected = false;
+      try {
+         LocalSearch.equalErrorBisection(new MinimaxEvaluator(getLossFunctions(seed), partitions - 1), partitions, tolerance);
+      } catch (IllegalArgumentException e) {
+         rejected = true;
+      }
+      System.out.println("Fewer samples than partitions rejected: "+rejected);
+   }
+   
+   public static void testProjectedGradientDescent(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 2000;
+      int partitions = 4;
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(getLossFunctions(seed), nbSamples);
+      
+      double[] probabilityMass = new double[partitions];
+      Arrays.fill(probabilityMass, 1.0/partitions);
+      double optimalApproxError = evaluator.getMaxApproximationError(LocalSearch.optimalPartitioning(evaluator, partitions));
+      double gradientApproxError = evaluator.getMaxApproximationError(LocalSearch.projectedGradientDescent(evaluator, probabilityMass, 500));
+      System.out.println("DP: "+optimalApproxError+" PGD: "+gradientApproxError);
+      System.out.println("PGD within 1% of DP: "+(Math.abs(gradientApproxError/optimalApproxError - 1) <= 0.01));
+   }
+   
+   public static void testIncrementalEvaluation(){
+      long[] seed = {1,2,3,4,5,6};
+      MRG32k3aL randomGenerator = new MRG32k3aL();
+      randomGenerator.setSeed(seed);
+      int nbSamples = 1000;
+      int partitions = 5;
+      
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      MinimaxEvaluator fullEvaluator = new MinimaxEvaluator(pwcfolfs, nbSamples);
+      
+      double[] probabilityMass = new double[partitions];
+      Arrays.fill(probabilityMass, 1.0/partitions);
+      IncrementalEvaluator evaluator = new IncrementalEvaluator(pwcfolfs, probabilityMass, nbSamples);
+      double maxDifference = Math.abs(evaluator.getMaxApproximationError() - fullEvaluator.getMaxApproximationError(probabilityMass));
+      for(int m = 0; m < 1000; m++){
+         int k = UniformIntGen.nextInt(randomGenerator, 0, partitions - 2);
+         int delta = UniformIntGen.nextInt(randomGenerator, -50, 50);
+         if(delta == 0 || !evaluator.canMove(k, delta)) continue;
+         double maxApproxError = evaluator.evaluateMove(k, delta);
+         evaluator.applyMove(k, delta);
+         double fullApproxError = fullEvaluator.getMaxApproximationError(evaluator.getProbabilityMasses());
+         maxDifference = Math.max(maxDifference, Math.abs(maxApproxError - fullApproxError));
+         maxDifference = Math.max(maxDifference, Math.abs(evaluator.getMaxApproximationError() - fullApproxError));
+      }
+      System.out.println("Max difference between incremental and full evaluation: "+maxDifference);
+   }
+   
+   public static void testBoundaryCache(){
+      long[] seed = {1,2,3,4,5,6};
+      MRG32k3aL randomGenerator = new MRG32k3aL();
+      randomGenerator.setSeed(seed);
+      int nbSamples = 1000;
+      int partitions = 5;
+      int[] deltas = {-5, -1, 1, 5};
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(pwcfolfs, nbSamples);
+      
+      /* The first walker fills the evaluator's cache, the second reads the same moves back from it; each step, 
+       * a walker with an empty cache of its own evaluates them again */
+      double[] probabilityMass = new double[partitions];
+      Arrays.fill(probabilityMass, 1.0/partitions);
+      IncrementalEvaluator filling = new IncrementalEvaluator(evaluator, probabilityMass);
+      IncrementalEvaluator cached = new IncrementalEvaluator(evaluator, probabilityMass);
+      boolean same = true;
+      for(int m = 0; m < 200; m++){
+         IncrementalEvaluator uncached = new IncrementalEvaluator(pwcfolfs, cached.getProbabilityMasses(), nbSamples);
+         double bound = uncached.getMaxApproximationError();
+         for(int k = 0; k < partitions - 1; k++){
+            for(int delta : deltas){
+               if(!cached.canMove(k, delta)) continue;
+               filling.evaluateMove(k, delta);
+               filling.evaluateMove(k, delta, bound);
+               same &= cached.evaluateMove(k, delta) == uncached.evaluateMove(k, delta);
+               double cachedApproxError = cached.evaluateMove(k, delta, bound);
+               double uncachedApproxError = uncached.evaluateMove(k, delta, bound);
+               same &= cachedApproxError < bound ? cachedApproxError == uncachedApproxError : uncachedApproxError >= bound;
+            }
+         }
+         int k = UniformIntGen.nextInt(randomGenerator, 0, partitions - 2);
+         int delta = UniformIntGen.nextInt(randomGenerator, -20, 20);
+         if(delta == 0 || !cached.canMove(k, delta)) continue;
+         filling.applyMove(k, delta);
+         cached.applyMove(k, delta);
+      }
+      System.out.println("Cache hit rate: "+evaluator.getCache(partitions).getHitRate());
+      System.out.println("Same errors from the cache as from an uncached evaluation: "+same);
+   }
+   
+   public static void testCheckpointResume(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 1000;
+      int partitions = 4;
+      int population = 200;
+      int budget = 5000;
+      
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(pwcfolfs, nbSamples);
+      
+      MRG32k3aL randomGenerator = new MRG32k3aL();
+      randomGenerator.setSeed(seed);
+      AnytimeOptimizer uninterrupted = new AnytimeOptimizer(evaluator, partitions, population);
+      uninterrupted.setCandidateEvaluationBudget(budget);
+      double[] uninterruptedMass = uninterrupted.optimize(randomGenerator);
+      
+      /* Interrupt budgets that fall in the candidate scan and in the hill climb of every iteration */
+      int runs = 0;
+      int mismatches = 0;
+      try {
+         for(int interruption = 150; interruption < budget; interruption += 13){
+            File checkpoint = File.createTempFile("pwlf", ".checkpoint");
+            checkpoint.delete();
+            
+            randomGenerator = new MRG32k3aL();
+            randomGenerator.setSeed(seed);
+            AnytimeOptimizer interrupted = new AnytimeOptimizer(evaluator, partitions, population);
+            interrupted.setCandidateEvaluationBudget(interruption);
+            interrupted.setCheckpoint(checkpoint, 1);
+            interrupted.optimize(randomGenerator);
+            
+            randomGenerator = new MRG32k3aL();
+            randomGenerator.setSeed(seed);
+            AnytimeOptimizer resumed = new AnytimeOptimizer(evaluator, partitions, population);
+            resumed.setCandidateEvaluationBudget(budget);
+            resumed.setCheckpoint(checkpoint, 1);
+            double[] resumedMass = resumed.optimize(randomGenerator);
+            checkpoint.delete();
+            
+            runs++;
+            if(!Arrays.equals(resumedMass, uninterruptedMass) || resumed.getIterations() != uninterrupted.getIterations()){
+               mismatches++;
+               System.out.println("Mismatch at budget "+interruption+": "+resumed.getMaxApproximationError()+" after "+resumed.getIterations()+
+                     " iterations, "+uninterrupted.getMaxApproximationError()+" after "+uninterrupted.getIterations()+" uninterrupted");
+            }
+         }
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      System.out.println("Resumed runs differing from the uninterrupted run: "+mismatches+" of "+runs);
+   }
+   
+   public static void testRacing(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 20000;
+      int partitions = 4;
+      int population = 5000;
+      
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      
+      MinimaxEvaluator evaluator = new MinimaxEvaluator(pwcfolfs, nbSamples);
+      RacingEvaluator racingEvaluator = new RacingEvaluator(pwcfolfs, nbSamples, null, 250, 0.0);
+      
+      /* Warm up both evaluators on throwaway copies so that the timings compare compiled code */
+      LocalSearch.simpleRandomSampling(new MRG32k3aL(), new MinimaxEvaluator(pwcfolfs, nbSamples), partitions, population);
+      LocalSearch.simpleRandomSampling(new MRG32k3aL(), new RacingEvaluator(pwcfolfs, nbSamples, null, 250, 0.0), partitions, population);
+      
+      MRG32k3aL randomGenerator = new MRG32k3aL();
+      randomGenerator.setSeed(seed);
+      long start = System.currentTimeMillis();
+      double[] bestMass = LocalSearch.simpleRandomSampling(randomGenerator, evaluator, partitions, population);
+      long plainTime = System.currentTimeMillis() - start;
+      
+      randomGenerator = new MRG32k3aL();
+      randomGenerator.setSeed(seed);
+      start = System.currentTimeMillis();
+      double[] racingMass = LocalSearch.simpleRandomSampling(randomGenerator, racingEvaluator, partitions, population);
+      long racingTime = System.currentTimeMillis() - start;
+      
+      System.out.println("Plain: "+plainTime+" ms, "+evaluator.getEvaluations()+" full-sample evaluations");
+      System.out.println("Racing: "+racingTime+" ms, "+racingEvaluator.getEvaluations()+" full-sample and "+
+            racingEvaluator.getSubsampleEvaluations()+" subsample evaluations");
+      System.out.println("Same masses: "+Arrays.equals(bestMass, racingMass));
+   }
+   
+   /**
+    * Scores every partition of the sample into three partitions of at least one sample, keeping the first best.
+    */
+   public static void testParallelRandomSampling(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 5000;
+      int partitions = 5;
+      int population = 25500;
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = getLossFunctions(seed);
+      
+      MRG32k3aL randomGenerator = new MRG32k3aL();
+      randomGenerator.setSeed(seed);
+      double[] sequentialMass = LocalSearch.parallelRandomSampling(randomGenerator, new MinimaxEvaluator(pwcfolfs, nbSamples), partitions, population);
+      boolean same = true;
+      for(int threads : new int[]{1, 2, 7}){
+         ForkJoinPool pool = new ForkJoinPool(threads);
+         randomGenerator = new MRG32k3aL();
+         randomGenerator.setSeed(seed);
+         double[] parallelMass = LocalSearch.parallelRandomSampling(randomGenerator, new MinimaxEvaluator(pwcfolfs, nbSamples, pool), partitions, population);
+         pool.shutdown();
+         same &= Arrays.equals(sequentialMass, parallelMass);
+      }
+      System.out.println("Same masses without a pool and on 1, 2 and 7 threads: "+same);
+   }
+   
+   /**
+    * The loss functions of the tests above: a normal demand, and a demand summing two normal ones.
+    */
+   private static PiecewiseComplementaryFirstOrderLossFunction[] getLossFunctions(long[] seed){
+      PiecewiseComplementaryFirstOrderLossFunction[] pwcfolfs = new PiecewiseComplementaryFirstOrderLossFunction[2];
+      Distribution[] distributions1 = {new NormalDist(50,10)};
+      pwcfolfs[0] = new PiecewiseComplementaryFirstOrderLossFunction(distributions1, seed);
+      Distribution[] distributions2 = {new NormalDist(20,5), new NormalDist(30,8)};
+      pwcfolfs[1] = new PiecewiseComplementaryFirstOrderLossFunction(distributions2, seed);
+      return pwcfolfs;
+   }
+   
+   private static double[] bruteForce(MinimaxEvaluator evaluator){
+      int nbSamples = evaluator.getNbSamples();
+      double[] bestMass = null;
+      double minMaxApproxError = Double.MAX_VALUE;
+      for(int a = 1; a < nbSamples - 1; a++){
+         for(int b = a + 1; b < nbSamples; b++){
+            double[] probabilityMass = {((double) a)/nbSamples, ((double) (b - a))/nbSamples, ((double) (nbSamples - b))/nbSamples};
+            double maxApproxError = evaluator.getMaxApproximationError(probabilityMass);
+            if(maxApproxError < minMaxApproxError){
+               minMaxApproxError = maxApproxError;
+               bestMass = probabilityMass;
+            }
+         }
+      }
+      return bestMass;
+   }
+   
    public static void testMonteCarlo(int nbIterations){
       long[] seed = {1,2,3,4,5,6};
       MRG32k3aL randomGenerator = new MRG32k3aL();
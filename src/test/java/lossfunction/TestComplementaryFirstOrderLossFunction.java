@@ -26,10 +26,15 @@
 
 package lossfunction;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 import umontreal.ssj.probdist.Distribution;
 import umontreal.ssj.probdist.ExponentialDist;
 import umontreal.ssj.probdist.NormalDist;
 import umontreal.ssj.probdist.PoissonDist;
+import umontreal.ssj.randvar.UniformGen;
+import umontreal.ssj.rng.MRG32k3aL;
 
 public class TestComplementaryFirstOrderLossFunction {
    
@@ -37,6 +42,8 @@ public class TestComplementaryFirstOrderLossFunction {
       //testDistributionPlot1();
       //testDistributionPlot2();
       testLossFunctionPlot();
+      testSampleIdentity();
+      testParallelSampling();
    }
    
    public static void testDistributionPlot1(){
@@ -69,4 +76,56 @@ public class TestComplementaryFirstOrderLossFunction {
       ComplementaryFirstOrderLossFunction cfolf = new ComplementaryFirstOrderLossFunction(distributions, seed);
       cfolf.plotEmpiricalLossFunction(50, 90, 1000, 1, true);
    }
+   
+   public static void testSampleIdentity(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 10000;
+      Distribution[] distributions = new Distribution[3];
+      distributions[0] = new PoissonDist(20);
+      distributions[1] = new ExponentialDist(0.1);
+      distributions[2] = new NormalDist(10,2);
+      ComplementaryFirstOrderLossFunction cfolf = new ComplementaryFirstOrderLossFunction(distributions, seed);
+      
+      MRG32k3aL randGenerator = new MRG32k3aL();
+      randGenerator.setSeed(seed);
+      double[][] sampleMatrix = new double[nbSamples][distributions.length];
+      for(int i = 0; i < sampleMatrix.length; i++){
+         for(int j = 0; j < sampleMatrix[i].length; j++){
+            sampleMatrix[i][j] = distributions[j].inverseF(UniformGen.nextDouble(randGenerator, 0, 1));
+         }
+      }
+      double[] observations = new double[nbSamples];
+      for(int i = 0; i < sampleMatrix.length; i++){
+         for(int j = 0; j < sampleMatrix[i].length; j++){
+            observations[i] += sampleMatrix[i][j];
+         }
+      }
+      Arrays.sort(observations);
+      
+      SortedSample sortedSample = cfolf.getSortedSample(nbSamples);
+      double[] sample = new double[nbSamples];
+      for(int i = 0; i < nbSamples; i++) sample[i] = sortedSample.getObs(i);
+      System.out.println("Bit-identical sample: "+Arrays.equals(observations, sample));
+   }
+   
+   public static void testParallelSampling(){
+      long[] seed = {1,2,3,4,5,6};
+      int nbSamples = 3*ComplementaryFirstOrderLossFunction.SAMPLING_BLOCK_SIZE + 123;
+      Distribution[] distributions = new Distribution[2];
+      distributions[0] = new PoissonDist(20);
+      distributions[1] = new NormalDist(10,2);
+      ComplementaryFirstOrderLossFunction cfolf = new ComplementaryFirstOrderLossFunction(distributions, seed);
+      
+      double[] reference = null;
+      for(int threads : new int[]{1, 2, 3, 8}){
+         ForkJoinPool pool = new ForkJoinPool(threads);
+         cfolf.setParallelSampling(pool);
+         SortedSample sortedSample = cfolf.getSortedSample(nbSamples);
+         double[] sample = new double[nbSamples];
+         for(int i = 0; i < nbSamples; i++) sample[i] = sortedSample.getObs(i);
+         pool.shutdown();
+         if(reference == null) reference = sample;
+         System.out.println(threads+" threads, same sample as 1 thread: "+Arrays.equals(reference, sample));
+      }
+   }
 }
@@ -27,12 +27,16 @@
 package lossfunction;
 
 import umontreal.ssj.probdist.Distribution;
+import umontreal.ssj.probdist.ExponentialDist;
 import umontreal.ssj.probdist.NormalDist;
+import umontreal.ssj.probdist.PoissonDist;
 
 public class TestPiecewiseComplementaryFirstOrderLossFunction {
    public static void main(String[] args){
       testPiecewiseLossFunction();
       testApproximationErrors();
+      testExactApproximationErrors();
+      testPiecewiseLinearModel();
    }
 
    private static void testPiecewiseLossFunction(){
@@ -60,4 +64,64 @@ public class TestPiecewiseComplementaryFirstOrderLossFunction {
          System.out.print(approximationErrors[i]+"\t");
       }
    }
+   
+   private static void testExactApproximationErrors(){
+      long[] seed = {1,2,3,4,5,6};
+      Distribution[] distributions = new Distribution[3];
+      distributions[0] = new NormalDist(50,10);
+      distributions[1] = new PoissonDist(20);
+      distributions[2] = new ExponentialDist(0.1);
+      PiecewiseComplementaryFirstOrderLossFunction pwcfolf = new PiecewiseComplementaryFirstOrderLossFunction(distributions, seed);
+      ExactPiecewiseComplementaryFirstOrderLossFunction exact = new ExactPiecewiseComplementaryFirstOrderLossFunction(distributions);
+      double[] probabilityMasses = {0.2,0.3,0.3,0.2};
+      int nbSamples = 100000;
+      double[] approximationErrors = pwcfolf.getApproximationErrors(probabilityMasses, nbSamples);
+      double[] exactApproximationErrors = exact.getApproximationErrors(probabilityMasses, nbSamples);
+      System.out.println();
+      for(int i = 0; i < probabilityMasses.length; i++){
+         System.out.print(approximationErrors[i]+" ("+exactApproximationErrors[i]+")\t");
+      }
+      System.out.println();
+      System.out.println("Sample mean: "+pwcfolf.getEmpiricalDistribution(nbSamples).getMean()+" ("+exact.getEmpiricalDistribution(nbSamples).getMean()+")");
+   }
+   
+   private static void testPiecewiseLinearModel(){
+      long[] seed = {1,2,3,4,5,6};
+      Distribution[] distributions = {new NormalDist(50,10), new PoissonDist(20)};
+      PiecewiseComplementaryFirstOrderLossFunction pwcfolf = new PiecewiseComplementaryFirstOrderLossFunction(distributions, seed);
+      double[] probabilityMasses = {0.1,0.2,0.3,0.25,0.15};
+      int nbSamples = 10000;
+      double[] conditionalExpectations = pwcfolf.getConditionalExpectations(probabilityMasses, nbSamples);
+      PiecewiseLinearModel model = pwcfolf.getPiecewiseLinearModel(probabilityMasses, nbSamples);
+      
+      double[] xs = ComplementaryFirstOrderLossFunction.getGrid(0, 140, 0.01);
+      double[] values = new double[xs.length];
+      model.evaluate(xs, values);
+      double maxDifference = 0;
+      double maxErrorDifference = 0;
+      for(int i = 0; i < xs.length; i++){
+         double value = linearScan(xs[i], probabilityMasses, conditionalExpectations);
+         maxDifference = Math.max(maxDifference, Math.abs(values[i] - value));
+         maxDifference = Math.max(maxDifference, Math.abs(model.evaluate(xs[i]) - value));
+         double error = pwcfolf.getLossFunctionValue(xs[i], nbSamples) - value;
+         maxErrorDifference = Math.max(maxErrorDifference, Math.abs(pwcfolf.getPiecewiseErrorValue(xs[i], nbSamples, model) - error));
+      }
+      System.out.println("Max difference between the compiled model and the linear scan: "+maxDifference+" (lower bound), "+maxErrorDifference+" (error)");
+   }
+   
+   /**
+    * The lower bound as it was evaluated before the compiled model: the largest of the partial sums of 
+    * (x - E[X|i])p(i) over the first j partitions.
+    */
+   private static double linearScan(double x, double[] probabilityMasses, double[] conditionalExpectations){
+      double maxValue = 0;
+      for(int j = 0; j <= probabilityMasses.length; j++){
+         double value = 0;
+         for(int i = 1; i <= j; i++){
+            value += (x-conditionalExpectations[i-1])*probabilityMasses[i-1];
+         }
+         maxValue = Math.max(maxValue, value);
+      }
+      return maxValue;
+   }
 }